@@ -0,0 +1,96 @@
+package com.github.cwilper.gutenproc;
+
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The DVD benchmarks run against. This is the one at the path given by the gutenproc.bench.dvd system
+ * property, if set and not empty, or else a {@link SyntheticDVD} of the given size in a temporary directory.
+ * Nothing is cached, so every read goes to the DVD itself.
+ */
+@State(Scope.Benchmark)
+public class BenchmarkDVD
+{
+    @Param("500")
+    public int syntheticBooks;
+
+    private Path tempDir;
+
+    private File dir;
+
+    public DVD dvd;
+
+    /**
+     * All books that have plaintext, in index order.
+     */
+    public List<Book> books;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        final String path = System.getProperty("gutenproc.bench.dvd", "");
+        if (path.isEmpty()) {
+            tempDir = Files.createTempDirectory("gutenproc-bench");
+            dir = SyntheticDVD.create(tempDir, syntheticBooks, 1).toFile();
+        } else {
+            dir = new File(path);
+        }
+        dvd = new DVD(dir);
+        try (Stream<Book> stream = dvd.books()) {
+            books = stream.filter(book -> book.scanPlaintext(false, (lineNum, line) -> false))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (tempDir != null) {
+            try (Stream<Path> paths = Files.walk(tempDir)) {
+                paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    /**
+     * Gets the index pages, in the order they're listed.
+     */
+    public List<Path> indexPages() throws IOException {
+        final Path indexPath = GutenProc.getFileCaseInsensitive(new File(dir, "etext").getPath()).get().toPath();
+        try (Stream<Path> pages = Files.list(indexPath)) {
+            return pages.collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Begins the given processor with options parsed as they would be on the command line.
+     */
+    public static <T extends Processor> T begin(T processor, String... args) {
+        final Options options = new Options();
+        processor.addOptions(options);
+        try {
+            processor.begin(new Commandline(new DefaultParser().parse(options, args)));
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(e);
+        }
+        return processor;
+    }
+}
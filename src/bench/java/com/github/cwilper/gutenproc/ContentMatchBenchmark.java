@@ -0,0 +1,50 @@
+package com.github.cwilper.gutenproc;
+
+import com.github.cwilper.gutenproc.list.ListProcessor;
+import com.google.common.collect.Lists;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Tests one book at a time against --match-text values, as given on the command line. Multiple
+ * values are separated by "&&". The defaults are a substring that's rare in the synthetic DVD,
+ * an equivalent regex, and both at once.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ContentMatchBenchmark
+{
+    @Param({ "unmatched force", "s/unmatch\\w+\\s+force/", "unmatched force&&s/unmatch\\w+\\s+force/" })
+    public String values;
+
+    private Predicate<Book> filter;
+
+    private int next;
+
+    @Setup
+    public void setUp() {
+        final List<StringMatcher> matchers = Lists.newArrayList();
+        for (String value : values.split("&&")) {
+            matchers.add(StringMatcher.forString(value));
+        }
+        filter = BenchmarkDVD.begin(new ListProcessor()).contentLinesMatch(matchers);
+    }
+
+    @Benchmark
+    public boolean test(BenchmarkDVD bench) {
+        final Book book = bench.books.get(next);
+        next = (next + 1) % bench.books.size();
+        return filter.test(book);
+    }
+}
@@ -0,0 +1,42 @@
+package com.github.cwilper.gutenproc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses one etext index page at a time, as {@link DVD#books()} does when there's no catalog.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class IndexParseBenchmark
+{
+    private IndexPageParser parser;
+
+    private List<Path> pages;
+
+    private int next;
+
+    @Setup
+    public void setUp(BenchmarkDVD bench) throws IOException {
+        parser = new IndexPageParser(bench.dvd, bench.getDir().toPath());
+        pages = bench.indexPages();
+    }
+
+    @Benchmark
+    public Book parse() throws IOException {
+        final Path page = pages.get(next);
+        next = (next + 1) % pages.size();
+        return parser.parse(page);
+    }
+}
@@ -0,0 +1,37 @@
+package com.github.cwilper.gutenproc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the plaintext of one book at a time, with or without stripping the Project Gutenberg
+ * header and footer. The difference between the two is the cost of normalizing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NormalizeBenchmark
+{
+    @Param({ "true", "false" })
+    public boolean normalize;
+
+    private int next;
+
+    @Benchmark
+    public boolean scan(BenchmarkDVD bench, Blackhole blackhole) {
+        final Book book = bench.books.get(next);
+        next = (next + 1) % bench.books.size();
+        return book.scanPlaintext(normalize, (lineNum, line) -> {
+            blackhole.consume(line);
+            return true;
+        });
+    }
+}
@@ -0,0 +1,44 @@
+package com.github.cwilper.gutenproc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a stripped PDF of one book at a time, as the dspace processor does with -gsp.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PdfBenchmark
+{
+    private File file;
+
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        file = File.createTempFile("gutenproc-bench", ".pdf");
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public boolean writePdf(BenchmarkDVD bench) {
+        final Book book = bench.books.get(next);
+        next = (next + 1) % bench.books.size();
+        return book.writePdf(file, true);
+    }
+}
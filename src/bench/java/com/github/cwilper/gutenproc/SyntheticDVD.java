@@ -0,0 +1,482 @@
+package com.github.cwilper.gutenproc;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Writes a DVD tree of made-up books, with index pages in the form {@link IndexPageParser} reads and
+ * plaintext wrapped in Project Gutenberg boilerplate, for benchmarks and scaling tests that can't use
+ * a real DVD.
+ *
+ * Books come in the same mix of forms as on the real DVD: plain .txt files, zip files holding a single
+ * .txt file, zip files holding a text along with images, HTML-only books, and short descriptors that
+ * normalize to nothing. Texts are in several charsets, with CRLF or LF line endings. Each book is
+ * generated from its own seed, so the same seed always gives the same tree, however many threads
+ * write it.
+ */
+public final class SyntheticDVD
+{
+    private static final String[] WORDS = ("the of and to a in that was he it his with for as had you not be her on"
+            + " at by which have or from this him but all she they were my are me one their so an said them we who"
+            + " would been will no when there if more out up into do any your what has man could other than our some"
+            + " very time upon about may its only now like little then can should made did us such great before must"
+            + " two these see know over much down after first mr good men own never most old shall day where those"
+            + " came come himself way work life without go make well through being long say might how am too even"
+            + " unmatched force").split(" ");
+
+    private static final String[] SYLLABLES = { "ar", "ben", "cor", "dal", "el", "fin", "gar", "hol", "in", "jor",
+            "kel", "lan", "mor", "nor", "ol", "par", "quin", "ros", "sel", "tor", "ul", "van", "wes", "yor" };
+
+    private static final String[] LANGUAGES = { "English", "English", "English", "English", "French", "German",
+            "Finnish", "Dutch", "Spanish", "Italian" };
+
+    private static final String[] LOC_CLASSES = { "PR: Language and Literatures: English literature",
+            "PS: Language and Literatures: American literature", "PQ: Language and Literatures: Romance literatures",
+            "PT: Language and Literatures: Germanic literature", "D: History: General and Eastern Hemisphere",
+            "Q: Science", "B: Philosophy, Psychology, Religion" };
+
+    /**
+     * Charsets given in FORMAT, and how often each is used, out of 100. An empty name means none is
+     * given, which is taken to mean US-ASCII.
+     */
+    private static final String[] CHARSETS = { "us-ascii", "iso-8859-1", "utf-8", "windows-1252", "macintosh", "" };
+
+    private static final int[] CHARSET_WEIGHTS = { 50, 25, 15, 5, 3, 2 };
+
+    /**
+     * Words with characters beyond ASCII, put in texts that can encode them.
+     */
+    private static final String[] LATIN_1_WORDS = { "café", "naïve", "façade", "über", "señor", "déjà" };
+
+    private static final String[] WINDOWS_1252_WORDS = { "café", "naïve", "œuvre", "—indeed—", "“quoth”" };
+
+    private static final String[] UTF_8_WORDS = { "café", "naïve", "œuvre", "—indeed—", "“quoth”", "Ελλάδα", "Москва" };
+
+    private enum Kind
+    {
+        TEXT, ZIPPED_TEXT, ZIPPED_TEXT_WITH_IMAGES, HTML, DESCRIPTOR
+    }
+
+    private static final int[] KIND_WEIGHTS = { 40, 35, 8, 12, 5 };
+
+    private final long seed;
+
+    private final int meanLines;
+
+    /**
+     * Creates a generator whose texts have about the given number of lines, on average.
+     */
+    public SyntheticDVD(long seed, int meanLines) {
+        this.seed = seed;
+        this.meanLines = meanLines;
+    }
+
+    /**
+     * Writes a tree with the given number of books, of about 1000 lines each, into the given directory,
+     * returning the directory.
+     */
+    public static Path create(Path dir, int books, long seed) throws IOException {
+        new SyntheticDVD(seed, 1000).write(dir, books, 1);
+        return dir;
+    }
+
+    /**
+     * Writes books numbered 1 to the given count into the given directory, using the given number of
+     * threads.
+     */
+    public void write(Path dir, int books, int threads) throws IOException {
+        Files.createDirectories(dir.resolve("etext"));
+        final IntStream etextNos = IntStream.rangeClosed(1, books);
+        if (threads == 1) {
+            etextNos.forEach(etextNo -> writeBook(dir, etextNo));
+            return;
+        }
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> etextNos.parallel().forEach(etextNo -> writeBook(dir, etextNo))).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), IOException.class);
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void writeBook(Path root, int etextNo) {
+        final Random random = new Random(seed * 1000003 + etextNo);
+        final String baseDir = baseDir(etextNo);
+        final Kind kind = Kind.values()[pick(random, KIND_WEIGHTS)];
+        final String charsetName = CHARSETS[pick(random, CHARSET_WEIGHTS)];
+        final Charset charset = Charset.forName(charsetName.isEmpty() ? "us-ascii"
+                : charsetName.equals("macintosh") ? "MacRoman" : charsetName);
+        final String title = capitalize(words(random, 2 + random.nextInt(5)));
+        final String author = name(random.nextInt(Math.max(etextNo / 5, 1)));
+        final String language = LANGUAGES[random.nextInt(LANGUAGES.length)];
+        final String lineEnding = random.nextInt(10) == 0 ? "\n" : "\r\n";
+        final String plainFormat = "text/plain" + (charsetName.isEmpty() ? "" : "; charset=\"" + charsetName + "\"");
+
+        // the first file listed is the one read as the book's text
+        final List<String[]> files = Lists.newArrayList();
+        try {
+            Files.createDirectories(root.resolve(baseDir));
+            switch (kind) {
+                case TEXT: {
+                    final String path = baseDir + etextNo + ".txt";
+                    write(root.resolve(path), text(random, etextNo, title, author, charset, lineEnding));
+                    files.add(new String[] { plainFormat, path });
+                    if (random.nextInt(3) == 0) {
+                        files.add(new String[] { "text/html", writeHtmlZip(root, baseDir, etextNo, title) });
+                    }
+                    break;
+                }
+                case ZIPPED_TEXT:
+                case ZIPPED_TEXT_WITH_IMAGES: {
+                    final String path = baseDir + etextNo + ".zip";
+                    try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(root.resolve(path)))) {
+                        addEntry(out, etextNo + ".txt", text(random, etextNo, title, author, charset, lineEnding));
+                        if (kind == Kind.ZIPPED_TEXT_WITH_IMAGES) {
+                            final int images = 1 + random.nextInt(4);
+                            for (int i = 1; i <= images; i++) {
+                                addEntry(out, "images/illus" + i + ".png", image(random));
+                            }
+                        }
+                    }
+                    files.add(new String[] { plainFormat, path });
+                    if (random.nextInt(3) == 0) {
+                        files.add(new String[] { "text/html", writeHtmlZip(root, baseDir, etextNo, title) });
+                    }
+                    break;
+                }
+                case HTML:
+                    files.add(new String[] { "text/html", writeHtmlZip(root, baseDir, etextNo, title) });
+                    break;
+                case DESCRIPTOR: {
+                    // e.g. the readme of an audio book, with hardly any text outside the boilerplate
+                    final String path = baseDir + etextNo + "-readme.txt";
+                    write(root.resolve(path), descriptor(etextNo, title, author, lineEnding).getBytes(charset));
+                    files.add(new String[] { plainFormat, path });
+                    files.add(new String[] { "audio/mpeg", writeAudio(root, baseDir, etextNo, random) });
+                    break;
+                }
+            }
+            writeIndexPage(root, random, etextNo, baseDir, title, author, language, files);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    private void writeIndexPage(Path root, Random random, int etextNo, String baseDir, String title,
+                                String author, String language, List<String[]> files) throws IOException {
+        try (Writer page = Files.newBufferedWriter(root.resolve("etext").resolve(etextNo + ".html"), UTF_8)) {
+            page.write("<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0 Strict//EN\">\n");
+            page.write("<html><head><title>" + title + " by " + author + "</title></head><body>\n");
+            page.write("<h1>" + title + "</h1>\n<table>\n");
+            row(page, "Title", title);
+            row(page, "Author", link(author));
+            if (random.nextInt(5) == 0) {
+                row(page, "Contributor", link(name(random.nextInt(1000))) + " (Translator)");
+            }
+            row(page, "Language", language);
+            row(page, "LoC Class", LOC_CLASSES[random.nextInt(LOC_CLASSES.length)]);
+            final int subjects = 1 + random.nextInt(3);
+            for (int i = 0; i < subjects; i++) {
+                row(page, "Subject", capitalize(words(random, 1 + random.nextInt(2))) + " -- Fiction");
+            }
+            if (random.nextInt(4) == 0) {
+                row(page, "Note", "Reading ease score: " + random.nextInt(100) + ".0");
+            }
+            row(page, "EText-No.", String.valueOf(etextNo));
+            row(page, "Release Date", String.format("%d-%02d-%02d", 1991 + random.nextInt(19),
+                    1 + random.nextInt(12), 1 + random.nextInt(28)));
+            row(page, "Copyright Status", "Not copyrighted in the United States.");
+            row(page, "Base Directory", "/" + baseDir);
+            page.write("</table>\n");
+            for (String[] file : files) {
+                page.write("<table><caption>Files</caption><tr><th>Format</th><th>File</th></tr><tr><td>"
+                        + file[0] + "</td><td><a href=\"../" + file[1] + "\">../" + file[1] + "</a></td></tr></table>\n");
+            }
+            page.write("</body></html>\n");
+        }
+    }
+
+    private static void row(Writer page, String label, String value) throws IOException {
+        page.write("<tr>\n<th>" + label + "</th>\n<td>" + value + "</td>\n</tr>\n");
+    }
+
+    private static String link(String name) {
+        return "<a href=\"/browse/authors/" + Character.toLowerCase(name.charAt(0)) + "\">" + name + "</a>";
+    }
+
+    /**
+     * Gets the directory a book's files are in, relative to the root: one level for each digit but
+     * the last, then one named after the whole number, e.g. 1/2/3/4/12345/.
+     */
+    private static String baseDir(int etextNo) {
+        final String digits = String.valueOf(etextNo);
+        final StringBuilder dir = new StringBuilder();
+        if (digits.length() == 1) {
+            dir.append("0/");
+        }
+        for (int i = 0; i < digits.length() - 1; i++) {
+            dir.append(digits.charAt(i)).append('/');
+        }
+        return dir.append(digits).append('/').toString();
+    }
+
+    private String writeHtmlZip(Path root, String baseDir, int etextNo, String title) throws IOException {
+        final String path = baseDir + etextNo + "-h.zip";
+        final String html = "<html><head><title>" + title + "</title></head><body><h1>" + title + "</h1>"
+                + "<p><img src=\"images/cover.jpg\"/></p></body></html>";
+        try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(root.resolve(path)))) {
+            addEntry(out, etextNo + "-h/" + etextNo + "-h.htm", html.getBytes(UTF_8));
+            addEntry(out, etextNo + "-h/images/cover.jpg", image(new Random(etextNo)));
+        }
+        return path;
+    }
+
+    private static String writeAudio(Path root, String baseDir, int etextNo, Random random) throws IOException {
+        final String path = baseDir + etextNo + "-01.mp3";
+        write(root.resolve(path), image(random));
+        return path;
+    }
+
+    private static void addEntry(ZipOutputStream out, String name, byte[] bytes) throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(bytes);
+        out.closeEntry();
+    }
+
+    private static void write(Path path, byte[] bytes) throws IOException {
+        try (OutputStream out = Files.newOutputStream(path)) {
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Gets some incompressible bytes to stand in for an image or audio file.
+     */
+    private static byte[] image(Random random) {
+        final byte[] bytes = new byte[1024 + random.nextInt(8192)];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private byte[] text(Random random, int etextNo, String title, String author, Charset charset, String lineEnding) {
+        final String[] specialWords = charset.name().equals("UTF-8") ? UTF_8_WORDS
+                : charset.name().equals("windows-1252") ? WINDOWS_1252_WORDS
+                : charset.newEncoder().canEncode('é') ? LATIN_1_WORDS : null;
+        final List<String> lines = Lists.newArrayList();
+        header(lines, etextNo, title, author, charset);
+        if (random.nextBoolean()) {
+            lines.add("Produced by " + name(random.nextInt(1000)) + " and the Online Distributed");
+            lines.add("Proofreading Team");
+            lines.add("");
+            lines.add("");
+            lines.add("");
+        }
+        final int targetLines = lines.size() + (int) (meanLines * (0.25 + 1.5 * random.nextDouble()));
+        while (lines.size() < targetLines) {
+            paragraph(random, lines, specialWords);
+            lines.add("");
+        }
+        footer(lines, etextNo, title, author);
+        return (String.join(lineEnding, lines) + lineEnding).getBytes(charset);
+    }
+
+    private static String descriptor(int etextNo, String title, String author, String lineEnding) {
+        final List<String> lines = Lists.newArrayList();
+        header(lines, etextNo, title, author, null);
+        lines.add("This is an audio eBook, read by a human volunteer.");
+        lines.add("");
+        footer(lines, etextNo, title, author);
+        return String.join(lineEnding, lines) + lineEnding;
+    }
+
+    private static void header(List<String> lines, int etextNo, String title, String author, Charset charset) {
+        lines.add("The Project Gutenberg EBook of " + title + ", by " + author);
+        lines.add("");
+        lines.add("This eBook is for the use of anyone anywhere at no cost and with");
+        lines.add("almost no restrictions whatsoever.  You may copy it, give it away or");
+        lines.add("re-use it under the terms of the Project Gutenberg License included");
+        lines.add("with this eBook or online at www.gutenberg.net");
+        lines.add("");
+        lines.add("");
+        lines.add("Title: " + title);
+        lines.add("");
+        lines.add("Author: " + author);
+        lines.add("");
+        lines.add("Release Date: " + etextNo + " [EBook #" + etextNo + "]");
+        lines.add("");
+        if (charset != null) {
+            lines.add("Character set encoding: " + charset.name());
+            lines.add("");
+        }
+        lines.add("*** START OF THIS PROJECT GUTENBERG EBOOK " + title.toUpperCase(Locale.ENGLISH) + " ***");
+        lines.add("");
+        lines.add("");
+        lines.add("");
+    }
+
+    private static void footer(List<String> lines, int etextNo, String title, String author) {
+        lines.add("");
+        lines.add("End of the Project Gutenberg EBook of " + title + ", by " + author);
+        lines.add("");
+        lines.add("*** END OF THIS PROJECT GUTENBERG EBOOK " + title.toUpperCase(Locale.ENGLISH) + " ***");
+        lines.add("");
+        lines.add("***** This file should be named " + etextNo + ".txt or " + etextNo + ".zip *****");
+        lines.add("This and all associated files of various formats will be found in:");
+        lines.add("        http://www.gutenberg.org/" + baseDir(etextNo));
+        lines.add("");
+        lines.add("Updated editions will replace the previous one--the old editions");
+        lines.add("will be renamed.");
+        lines.add("");
+        lines.add("Creating the works from public domain print editions means that no");
+        lines.add("one owns a United States copyright in these works, so the Foundation");
+        lines.add("(and you!) can copy and distribute it in the United States without");
+        lines.add("permission and without paying copyright royalties.");
+    }
+
+    /**
+     * Adds a paragraph of random words, wrapped at 70 columns.
+     */
+    private static void paragraph(Random random, List<String> lines, String[] specialWords) {
+        final StringBuilder line = new StringBuilder();
+        final int words = 10 + random.nextInt(150);
+        for (int i = 0; i < words; i++) {
+            final String word = specialWords != null && random.nextInt(200) == 0
+                    ? specialWords[random.nextInt(specialWords.length)] : word(random);
+            if (line.length() + word.length() >= 70) {
+                lines.add(line.toString());
+                line.setLength(0);
+            } else if (line.length() > 0) {
+                line.append(' ');
+            }
+            line.append(word);
+        }
+        lines.add(line.append('.').toString());
+    }
+
+    /**
+     * Picks a word, favoring those at the start of the list as in natural text.
+     */
+    private static String word(Random random) {
+        final double r = random.nextDouble();
+        return WORDS[(int) (r * r * WORDS.length)];
+    }
+
+    private static String words(Random random, int count) {
+        final StringBuilder words = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                words.append(' ');
+            }
+            words.append(word(random));
+        }
+        return words.toString();
+    }
+
+    /**
+     * Gets the i'th of a fixed series of person names, in the form "Surname, Forename, 1812-1870".
+     */
+    private static String name(int i) {
+        final Random random = new Random(i);
+        final int born = 1500 + random.nextInt(400);
+        return capitalize(syllables(random, 2 + random.nextInt(2))) + ", " + capitalize(syllables(random, 2))
+                + ", " + born + "-" + (born + 20 + random.nextInt(70));
+    }
+
+    private static String syllables(Random random, int count) {
+        final StringBuilder syllables = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            syllables.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+        }
+        return syllables.toString();
+    }
+
+    private static String capitalize(String words) {
+        return Character.toUpperCase(words.charAt(0)) + words.substring(1);
+    }
+
+    private static int pick(Random random, int[] weights) {
+        int total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+        int r = random.nextInt(total);
+        for (int i = 0; i < weights.length; i++) {
+            r -= weights[i];
+            if (r < 0) {
+                return i;
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    public static void main(String[] args) {
+        final Options options = new Options();
+        options.addOption(Option.builder("n")
+                .longOpt("books")
+                .desc("Number of books. Default is 1000")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("l")
+                .longOpt("lines")
+                .desc("Average number of lines of text per book. Default is 1000")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("s")
+                .longOpt("seed")
+                .desc("Random seed. Default is 1")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("th")
+                .longOpt("threads")
+                .desc("Number of threads to write books with. Default is the number of available processors")
+                .hasArg()
+                .build());
+        try {
+            final Commandline cmd = new Commandline(new DefaultParser().parse(options, args));
+            if (cmd.getArguments().size() != 1) {
+                new HelpFormatter().printHelp("SyntheticDVD [options] /path/to/new/DVD", options);
+                System.exit(1);
+            }
+            final Path dir = Paths.get(cmd.getArguments().get(0));
+            final int books = cmd.getOptionIntValue("n", 1000);
+            final int threads = cmd.getOptionIntValue("th", Runtime.getRuntime().availableProcessors());
+            final long start = System.currentTimeMillis();
+            new SyntheticDVD(Long.parseLong(cmd.getOptionValue("s", "1")), cmd.getOptionIntValue("l", 1000))
+                    .write(dir, books, threads);
+            System.out.println("Wrote " + books + " books to " + dir + " in "
+                    + (System.currentTimeMillis() - start) + "ms");
+        } catch (ParseException | IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.github.cwilper.gutenproc.unique;
+
+import com.github.cwilper.gutenproc.BenchmarkDVD;
+import com.github.cwilper.gutenproc.Book;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counts the unique metadata values of every book, with the unique processor's options given as
+ * on the command line. Books are already in memory, so this measures counting alone.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UniqueCountBenchmark
+{
+    @Param({ "", "-ap", "-f Subject -c", "-f Subject -c -t 10 -ap" })
+    public String args;
+
+    @Benchmark
+    public UniqueProcessor countAll(BenchmarkDVD bench) {
+        final UniqueProcessor processor = BenchmarkDVD.begin(new UniqueProcessor(),
+                args.isEmpty() ? new String[0] : args.split(" "));
+        for (Book book : bench.books) {
+            processor.test(book);
+        }
+        return processor;
+    }
+}
@@ -0,0 +1,164 @@
+package com.github.cwilper.gutenproc;
+
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+
+/**
+ * An Aho-Corasick automaton that finds which of several lowercase patterns occur in a string,
+ * ignoring case, in a single pass over its characters.
+ *
+ * Case is ignored exactly as by {@code text.toLowerCase().contains(pattern)}, with patterns lowercased
+ * by {@link String#toLowerCase()}. For ASCII text in most locales that's the same as lowercasing one
+ * character at a time, which the automaton does. Other text, where lowercasing can depend on the
+ * locale or on the surrounding characters, is lowercased in full and searched for each pattern in turn.
+ * Instances are immutable and safe to share between threads.
+ */
+final class AhoCorasick
+{
+    private static final int ROOT = 0;
+
+    private static final int ASCII = 128;
+
+    /**
+     * Languages in which ASCII letters don't always lowercase to themselves, e.g. "I" to dotless "ı".
+     */
+    private static final List<String> SPECIAL_CASING_LANGUAGES = Arrays.asList("tr", "az", "lt");
+
+    private final String[] lcPatterns;
+
+    private final boolean asciiFoldsSimply;
+
+    private final int[][] next;
+
+    private final int[][] outputs;
+
+    /**
+     * Creates an automaton for the given patterns, which must already be lowercase.
+     */
+    AhoCorasick(List<String> lcPatterns) {
+        this.lcPatterns = lcPatterns.toArray(new String[lcPatterns.size()]);
+        asciiFoldsSimply = !SPECIAL_CASING_LANGUAGES.contains(Locale.getDefault().getLanguage());
+
+        // build a trie of the ASCII patterns; others can't occur in ASCII text
+        final List<int[]> nextList = Lists.newArrayList();
+        final List<List<Integer>> outputList = Lists.newArrayList();
+        addState(nextList, outputList);
+        for (int p = 0; p < lcPatterns.size(); p++) {
+            final String pattern = lcPatterns.get(p);
+            if (!isAscii(pattern)) {
+                continue;
+            }
+            int state = ROOT;
+            for (int i = 0; i < pattern.length(); i++) {
+                final char c = pattern.charAt(i);
+                if (nextList.get(state)[c] <= ROOT) {
+                    nextList.get(state)[c] = addState(nextList, outputList);
+                }
+                state = nextList.get(state)[c];
+            }
+            outputList.get(state).add(p);
+        }
+        next = nextList.toArray(new int[nextList.size()][]);
+
+        // compute failure links breadth-first, completing the table and merging outputs as we go
+        final int[] failure = new int[next.length];
+        final Queue<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < ASCII; c++) {
+            if (next[ROOT][c] > ROOT) {
+                queue.add(next[ROOT][c]);
+            }
+            next[ROOT][c] = Math.max(next[ROOT][c], ROOT);
+        }
+        while (!queue.isEmpty()) {
+            final int state = queue.remove();
+            for (int c = 0; c < ASCII; c++) {
+                final int target = next[state][c];
+                if (target > ROOT) {
+                    failure[target] = next[failure[state]][c];
+                    outputList.get(target).addAll(outputList.get(failure[target]));
+                    queue.add(target);
+                } else {
+                    next[state][c] = next[failure[state]][c];
+                }
+            }
+        }
+        outputs = new int[next.length][];
+        for (int s = 0; s < next.length; s++) {
+            outputs[s] = Ints.toArray(outputList.get(s));
+        }
+    }
+
+    private static int addState(List<int[]> next, List<List<Integer>> outputs) {
+        final int[] transitions = new int[ASCII];
+        Arrays.fill(transitions, -1);
+        next.add(transitions);
+        outputs.add(Lists.newArrayList());
+        return next.size() - 1;
+    }
+
+    private static boolean isAscii(String string) {
+        for (int i = 0; i < string.length(); i++) {
+            if (string.charAt(i) >= ASCII) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int getPatternCount() {
+        return lcPatterns.length;
+    }
+
+    /**
+     * Sets found[i] to true for each pattern i that occurs in the given text, ignoring case,
+     * and returns the number of patterns that were newly found.
+     */
+    int find(String text, boolean[] found) {
+        if (!asciiFoldsSimply) {
+            return findLowercased(text, found);
+        }
+        int newlyFound = mark(ROOT, found);
+        int state = ROOT;
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c >= ASCII) {
+                // anything found so far is still right, since the text before here is ASCII
+                return newlyFound + findLowercased(text, found);
+            }
+            state = next[state][c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c];
+            if (outputs[state].length > 0) {
+                newlyFound += mark(state, found);
+            }
+        }
+        return newlyFound;
+    }
+
+    private int findLowercased(String text, boolean[] found) {
+        final String lcText = text.toLowerCase();
+        int newlyFound = 0;
+        for (int p = 0; p < lcPatterns.length; p++) {
+            if (!found[p] && lcText.contains(lcPatterns[p])) {
+                found[p] = true;
+                newlyFound++;
+            }
+        }
+        return newlyFound;
+    }
+
+    private int mark(int state, boolean[] found) {
+        int newlyFound = 0;
+        for (int p : outputs[state]) {
+            if (!found[p]) {
+                found[p] = true;
+                newlyFound++;
+            }
+        }
+        return newlyFound;
+    }
+}
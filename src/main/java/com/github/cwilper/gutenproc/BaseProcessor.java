@@ -1,11 +1,23 @@
 package com.github.cwilper.gutenproc;
 
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Ints;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.function.Consumer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
 
@@ -13,17 +25,29 @@ public abstract class BaseProcessor
         implements Predicate<Book>, Processor
 {
     protected boolean captureMatchInfo;
-    protected StringBuilder matchInfo = null;
+    private final ThreadLocal<StringBuilder> matchInfo = new ThreadLocal<>();
 
-    protected int scanCount = 0;
-    protected int matchCount = 0;
-    protected int processCount = 0;
+    protected final AtomicInteger scanCount = new AtomicInteger();
+    protected final AtomicInteger matchCount = new AtomicInteger();
+    protected final AtomicInteger processCount = new AtomicInteger();
 
     protected Long minLines;
     protected Long maxLines;
 
     protected long limit;
 
+    protected int threads;
+
+    protected boolean showProgress;
+
+    protected Optional<TextIndex> textIndex = Optional.empty();
+
+    protected Optional<MetadataIndex> metadataIndex = Optional.empty();
+
+    private double lineCountCost = FilterPlan.NORMALIZED_TEXT_COST;
+
+    protected PrintStream out = System.out;
+
     @Override
     public String getHelpFooter() {
         return "String Matching:\nString matches are performed as case insensitive substring matches, by default. "
@@ -32,6 +56,11 @@ public abstract class BaseProcessor
                 + "will only match books whose titles begin with 'The' and end with 'End'.";
     }
 
+    @Override
+    public void setOut(PrintStream out) {
+        this.out = out;
+    }
+
     @Override
     public void addOptions(final Options options) {
         for (Field field : Field.values()) {
@@ -57,6 +86,16 @@ public abstract class BaseProcessor
                 .desc("Limit to the given number of books")
                 .hasArg()
                 .build());
+        options.addOption(Option.builder("pr")
+                .longOpt("progress")
+                .desc("Show progress on stderr as books are scanned, with throughput and the estimated time remaining")
+                .build());
+        options.addOption(Option.builder("th")
+                .longOpt("threads")
+                .desc("Number of threads to filter and process books with, or 0 to use all available processors."
+                        + " Default is 1")
+                .hasArg()
+                .build());
     }
 
     protected void addFieldFilterOption(Options options, Field field) {
@@ -80,146 +119,453 @@ public abstract class BaseProcessor
         } else {
             limit = Long.MAX_VALUE;
         }
+        showProgress = cmd.hasOption("pr");
+        threads = cmd.getOptionIntValue("th", 1);
+        Preconditions.checkArgument(threads >= 0, "Number of threads must not be negative");
+        if (threads == 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+    }
+
+    /**
+     * Tells whether {@link #test(Object)} must be called for one book at a time, in the order the
+     * books were read from the DVD. This is the case by default, since most processors produce output
+     * as they go. Processors that can safely process books concurrently and in any order should
+     * override this to return false, which allows all stages to run in parallel when threads > 1.
+     */
+    protected boolean requiresOrderedProcessing() {
+        return true;
+    }
+
+    /**
+     * Gets the match info captured for the book currently being processed.
+     */
+    protected String getMatchInfo() {
+        return matchInfo.get().toString();
     }
 
     @Override
     public void process(final DVD dvd, final Commandline cmd) {
-        Stream<Book> books = dvd.books().filter(book -> {
-            // before each book, clear state of matchInfo if needed
-            if (captureMatchInfo) {
-                matchInfo = new StringBuilder();
+        final Scan scan = startScan(dvd, cmd, true);
+        ProgressReporter progress = null;
+        boolean completed = false;
+        try (Stream<Book> books = dvd.books()) {
+            if (showProgress) {
+                progress = ProgressReporter.start(dvd.getBookCount(), limit, processCount::get);
             }
-            // also increment scanCount so it can be used to determine overall progress
-            scanCount++;
-            return true;
-        });
-        for (Field field : Field.values()) {
-            books = filterByFieldIfNeeded(cmd, books, field);
-        }
-        if (cmd.hasOption("mx")) {
-            for (String value : cmd.getOptionValues("mx")) {
-                books = books.filter(contentLineMatches(value));
+            if (threads == 1) {
+                final Iterator<Book> iterator = books.iterator();
+                while (iterator.hasNext() && !scan.isDone()) {
+                    final MatchedBook matchedBook = scan.filter(iterator.next());
+                    if (matchedBook != null) {
+                        scan.process(matchedBook);
+                    }
+                }
+            } else {
+                final Stream<MatchedBook> matchedBooks = books.parallel()
+                        .map(book -> scan.isDone() ? null : scan.filter(book))
+                        .filter(Objects::nonNull);
+                final ForkJoinPool pool = new ForkJoinPool(threads);
+                try {
+                    if (requiresOrderedProcessing()) {
+                        pool.submit(() -> matchedBooks.forEachOrdered(scan::process)).get();
+                    } else {
+                        pool.submit(() -> matchedBooks.forEach(scan::process)).get();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw Throwables.propagate(e);
+                } catch (ExecutionException e) {
+                    throw Throwables.propagate(e.getCause());
+                } finally {
+                    pool.shutdown();
+                }
+            }
+            completed = true;
+        } finally {
+            if (progress != null) {
+                progress.close();
+            }
+            try {
+                scan.finish(completed);
+            } finally {
+                dvd.saveComputedMetadata();
             }
         }
-        if (minLines != null) {
-            books = books.filter(book -> book.lineCount() >= minLines);
-        }
-        if (maxLines != null) {
-            books = books.filter(book -> book.lineCount() <= maxLines);
-        }
+    }
 
-        books = books.filter(book -> {
-            matchCount++;
-            return true;
-        });
+    /**
+     * Starts a scan that's driven one book at a time by the caller, so this processor can share a
+     * single pass over the DVD with others. The caller decides which threads books are filtered and
+     * processed on, and must finish the scan when done.
+     */
+    public Scan startScan(final DVD dvd, final Commandline cmd) {
+        return startScan(dvd, cmd, false);
+    }
 
-        books = books.filter(this);
+    private Scan startScan(final DVD dvd, final Commandline cmd, boolean metered) {
+        textIndex = dvd.getTextIndex();
+        metadataIndex = dvd.getMetadataIndex();
+        if (minLines != null || maxLines != null) {
+            lineCountCost = getLineCountCost(dvd);
+        }
+        final Predicate<Book> filter = getFilter(cmd);
+        beforeScan(dvd);
+        return new Scan(filter, metered);
+    }
 
-        books = books.limit(limit);
+    /**
+     * Estimates the cost of filtering on line counts, which is far less for books whose line counts
+     * were saved by an earlier run.
+     */
+    private double getLineCountCost(final DVD dvd) {
+        final Optional<ComputedMetadata> computedMetadata = dvd.getComputedMetadata();
+        if (!computedMetadata.isPresent() || !metadataIndex.isPresent()) {
+            return FilterPlan.NORMALIZED_TEXT_COST;
+        }
+        final double known = Math.min((double) computedMetadata.get().getLineCountsKnown()
+                / Math.max(metadataIndex.get().getBookCount(), 1), 1);
+        return known * FilterPlan.FILE_COST + (1 - known) * FilterPlan.NORMALIZED_TEXT_COST;
+    }
 
-        books.forEach(book -> {
-            processCount++;
-        });
+    /**
+     * Prepares for a scan of the DVD, once the filters are in place but before any books are read.
+     * Does nothing by default.
+     */
+    protected void beforeScan(DVD dvd) {
     }
 
-    protected Stream<Book> filterByFieldIfNeeded(Commandline cmd, Stream<Book> books, Field field) {
-        if (cmd.hasOption(field.opt())) {
-            for (String value : cmd.getOptionValues(field.opt())) {
-                books = books.filter(metadataMatches(field, value));
+    /**
+     * Cleans up after a scan of the DVD, whether or not it completed. Does nothing by default.
+     *
+     * @param completed false if the scan was stopped by an error.
+     */
+    protected void afterScan(boolean completed) {
+    }
+
+    /**
+     * Gets a predicate that combines all filters given on the command line. The filters are run in
+     * order of estimated cost and selectivity, so books that can be ruled out by their metadata or by
+     * the text index are never read.
+     */
+    protected Predicate<Book> getFilter(final Commandline cmd) {
+        final FilterPlan plan = new FilterPlan(captureMatchInfo ? matchInfo::get : null);
+        if (metadataIndex.isPresent() && !captureMatchInfo) {
+            final Optional<BitSet> matches = metadataIndexMatches(cmd);
+            if (matches.isPresent()) {
+                final BitSet ordinals = matches.get();
+                plan.add("metadata-index", book -> ordinals.get(book.getOrdinal()), FilterPlan.INDEX_COST,
+                        (double) ordinals.cardinality() / Math.max(metadataIndex.get().getBookCount(), 1));
+            }
+        } else {
+            for (Field field : Field.values()) {
+                if (cmd.hasOption(field.opt())) {
+                    for (String value : cmd.getOptionValues(field.opt())) {
+                        final StringMatcher matcher = StringMatcher.forString(value);
+                        plan.add(field.longOpt(), metadataMatches(field, matcher),
+                                matcher.isRegex() ? FilterPlan.METADATA_COST * 4 : FilterPlan.METADATA_COST, 0.1);
+                    }
+                }
             }
         }
-        return books;
+        if (cmd.hasOption("mx")) {
+            final List<StringMatcher> matchers = Lists.newArrayList();
+            for (String value : cmd.getOptionValues("mx")) {
+                matchers.add(StringMatcher.forString(value));
+            }
+            final Optional<BitSet> candidates = textCandidates(matchers);
+            if (candidates.isPresent()) {
+                final BitSet bookIds = candidates.get();
+                final TextIndex index = textIndex.get();
+                plan.add("text-index", book -> {
+                    final int bookId = index.bookId(book);
+                    return bookId == -1 || bookIds.get(bookId); // if indexed, it's worth reading
+                }, FilterPlan.INDEX_COST, (double) bookIds.cardinality() / Math.max(index.getBookCount(), 1));
+            }
+            plan.add("match-text", contentLinesMatch(matchers), FilterPlan.TEXT_COST, 0.5);
+        }
+        if (minLines != null || maxLines != null) {
+            final long min = minLines == null ? Long.MIN_VALUE : minLines;
+            final long max = maxLines == null ? Long.MAX_VALUE : maxLines;
+            plan.add("line-count", book -> {
+                final int lineCount = book.lineCount();
+                return lineCount >= min && lineCount <= max;
+            }, lineCountCost, 0.5);
+        }
+        return plan;
     }
 
-    protected Predicate<Book> metadataMatches(final Field field, final String substringOrRegex) {
-        if (substringOrRegex.startsWith("s/") && substringOrRegex.endsWith("/")) {
-            final String regex = substringOrRegex.substring(2, substringOrRegex.length() - 1);
-            return book -> {
-                boolean matched = false;
-                if (book.has(field)) {
-                    for (String value : book.get(field).get()) {
-                        if (value.matches(regex)) {
-                            addMatchInfo("Metadata regex match on " + field.label() + ": " + value);
-                            if (captureMatchInfo) {
-                                matched = true;
-                            } else {
-                                return true;
-                            }
-                        }
+    /**
+     * Gets the ordinals of the books that pass every metadata filter given on the command line,
+     * according to the metadata index, if there are any such filters.
+     */
+    private Optional<BitSet> metadataIndexMatches(final Commandline cmd) {
+        BitSet matches = null;
+        for (Field field : Field.values()) {
+            if (cmd.hasOption(field.opt())) {
+                for (String value : cmd.getOptionValues(field.opt())) {
+                    final BitSet fieldMatches = metadataIndex.get().matches(field, StringMatcher.forString(value));
+                    if (matches == null) {
+                        matches = fieldMatches;
+                    } else {
+                        matches.and(fieldMatches);
                     }
                 }
-                return matched;
-            };
-        } else {
-            final String lcSubstring = substringOrRegex.toLowerCase();
-            return book -> {
-                boolean matched = false;
-                if (book.has(field)) {
-                    for (String value : book.get(field).get()) {
-                        if (value.toLowerCase().contains(lcSubstring)) {
-                            addMatchInfo("Metadata substring match on " + field.label() + ": " + value);
-                            if (captureMatchInfo) {
-                                matched = true;
-                            } else {
-                                return true;
-                            }
+            }
+        }
+        return Optional.ofNullable(matches);
+    }
+
+    /**
+     * Gets the ordinals of the books that pass every filter given on the command line, if that can be
+     * known from the metadata index alone: when there's no limit, no filters on text or line counts,
+     * and match info isn't being captured.
+     */
+    protected Optional<BitSet> getIndexedMatches(final DVD dvd, final Commandline cmd) {
+        metadataIndex = dvd.getMetadataIndex();
+        if (!metadataIndex.isPresent() || captureMatchInfo || limit != Long.MAX_VALUE || cmd.hasOption("mx")
+                || minLines != null || maxLines != null) {
+            return Optional.empty();
+        }
+        final Optional<BitSet> matches = metadataIndexMatches(cmd);
+        if (matches.isPresent()) {
+            return matches;
+        }
+        final BitSet all = new BitSet(metadataIndex.get().getBookCount());
+        all.set(0, metadataIndex.get().getBookCount());
+        return Optional.of(all);
+    }
+
+    protected Predicate<Book> metadataMatches(final Field field, final StringMatcher matcher) {
+        final String description = "Metadata " + (matcher.isRegex() ? "regex" : "substring") + " match on "
+                + field.label() + ": ";
+        return book -> {
+            boolean matched = false;
+            if (book.has(field)) {
+                for (String value : book.get(field).get()) {
+                    if (matcher.matches(value)) {
+                        addMatchInfo(description + value);
+                        if (captureMatchInfo) {
+                            matched = true;
+                        } else {
+                            return true;
                         }
                     }
                 }
-                return matched;
-            };
-        }
-    }
-
-    protected Predicate<Book> contentLineMatches(final String substringOrRegex) {
-        if (substringOrRegex.startsWith("s/") && substringOrRegex.endsWith("/")) {
-            final String regex = substringOrRegex.substring(2, substringOrRegex.length() - 1);
-            return book -> {
-                boolean matched = false;
-                Optional<List<String>> lines = book.getPlaintextContent(false);
-                if (lines.isPresent()) {
-                    int lineNum = 0;
-                    for (String line : lines.get()) {
-                        lineNum++;
-                        if (line.matches(regex)) {
-                            addMatchInfo("Text regex match on line " + lineNum + ": " + line);
-                            if (captureMatchInfo) {
-                                matched = true;
-                            } else {
-                                return true;
+            }
+            return matched;
+        };
+    }
+
+    /**
+     * Gets the ids of indexed books that may have lines matching all of the given matchers, if the
+     * text index can rule anything out.
+     */
+    private Optional<BitSet> textCandidates(final List<StringMatcher> matchers) {
+        Optional<BitSet> candidates = Optional.empty();
+        for (StringMatcher matcher : matchers) {
+            final Optional<BitSet> matcherCandidates = matcher.getRequiredSubstring()
+                    .flatMap(lcSubstring -> textIndex.flatMap(index -> index.candidates(lcSubstring)));
+            if (matcherCandidates.isPresent()) {
+                if (candidates.isPresent()) {
+                    candidates.get().and(matcherCandidates.get());
+                } else {
+                    candidates = matcherCandidates;
+                }
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Gets a predicate that passes books with at least one line of plaintext matching each of the
+     * given matchers. The text is scanned once no matter how many there are: substrings are found
+     * together by a single automaton, and regexes are tried against each line in the same pass.
+     * Match info is captured in the order the matchers were given.
+     */
+    protected Predicate<Book> contentLinesMatch(final List<StringMatcher> matchers) {
+        final int count = matchers.size();
+        final String[] descriptions = new String[count];
+        final List<String> lcSubstrings = Lists.newArrayList();
+        final List<Integer> substringIndexes = Lists.newArrayList();
+        final List<StringMatcher> regexMatchers = Lists.newArrayList();
+        final List<Integer> regexIndexes = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            final StringMatcher matcher = matchers.get(i);
+            descriptions[i] = "Text " + (matcher.isRegex() ? "regex" : "substring") + " match on line ";
+            if (matcher.isRegex()) {
+                regexMatchers.add(matcher);
+                regexIndexes.add(i);
+            } else {
+                lcSubstrings.add(matcher.getRequiredSubstring().get());
+                substringIndexes.add(i);
+            }
+        }
+        final AhoCorasick substrings = new AhoCorasick(lcSubstrings);
+        final int[] substringIndex = Ints.toArray(substringIndexes);
+        final int[] regexIndex = Ints.toArray(regexIndexes);
+        return book -> {
+            final boolean[] matched = new boolean[count];
+            final boolean[] lineMatched = new boolean[substringIndex.length];
+            final List<List<String>> info = captureMatchInfo ? Lists.newArrayList() : null;
+            if (captureMatchInfo) {
+                for (int i = 0; i < count; i++) {
+                    info.add(Lists.newArrayList());
+                }
+            }
+            final int[] unmatched = { count };
+            book.scanPlaintext(false, (lineNum, line) -> {
+                if (substringIndex.length > 0) {
+                    Arrays.fill(lineMatched, false);
+                    if (substrings.find(line, lineMatched) > 0) {
+                        for (int j = 0; j < lineMatched.length; j++) {
+                            if (lineMatched[j]) {
+                                unmatched[0] -= matchedLine(substringIndex[j], matched, info, descriptions, lineNum, line);
                             }
                         }
                     }
                 }
-                return matched;
-            };
-        } else {
-            final String lcSubstring = substringOrRegex.toLowerCase();
-            return book -> {
-                boolean matched = false;
-                Optional<List<String>> lines = book.getPlaintextContent(false);
-                if (lines.isPresent()) {
-                    int lineNum = 0;
-                    for (String line : lines.get()) {
-                        lineNum++;
-                        if (line.toLowerCase().contains(lcSubstring)) {
-                            addMatchInfo("Text substring match on line " + lineNum + ": " + line);
-                            if (captureMatchInfo) {
-                                matched = true;
-                            } else {
-                                return true;
-                            }
-                        }
+                for (int j = 0; j < regexIndex.length; j++) {
+                    if ((captureMatchInfo || !matched[regexIndex[j]]) && regexMatchers.get(j).matches(line)) {
+                        unmatched[0] -= matchedLine(regexIndex[j], matched, info, descriptions, lineNum, line);
                     }
                 }
-                return matched;
-            };
+                return captureMatchInfo || unmatched[0] > 0;
+            });
+            if (unmatched[0] > 0) {
+                return false;
+            }
+            if (captureMatchInfo) {
+                for (List<String> lines : info) {
+                    lines.forEach(this::addMatchInfo);
+                }
+            }
+            return true;
+        };
+    }
+
+    /**
+     * Records a match of the i'th value on a line, returning 1 if it's the first for that value, or 0 otherwise.
+     */
+    private static int matchedLine(int i, boolean[] matched, List<List<String>> info, String[] descriptions,
+                                   int lineNum, String line) {
+        if (info != null) {
+            info.get(i).add(descriptions[i] + lineNum + ": " + line);
         }
+        if (matched[i]) {
+            return 0;
+        }
+        matched[i] = true;
+        return 1;
     }
 
     protected void addMatchInfo(String string) {
         if (captureMatchInfo) {
-            matchInfo.append(string + "\n");
+            matchInfo.get().append(string + "\n");
+        }
+    }
+
+    /**
+     * A scan of the DVD by this processor. Each book is passed to {@link #filter}, and those that
+     * match are passed on to {@link #process}, not necessarily on the same thread.
+     */
+    public final class Scan
+    {
+        private final Predicate<Book> filter;
+
+        /**
+         * Whether books scanned, books matched, and processing time are counted in the metrics.
+         */
+        private final boolean metered;
+
+        /**
+         * Books being or having been processed, counted before they're processed so concurrent threads
+         * can't go over the limit between them.
+         */
+        private final AtomicLong reserved = new AtomicLong();
+
+        private Scan(Predicate<Book> filter, boolean metered) {
+            this.filter = filter;
+            this.metered = metered;
+        }
+
+        /**
+         * Tells whether the limit on the number of books processed has been reached.
+         */
+        public boolean isDone() {
+            return processCount.get() >= limit;
+        }
+
+        /**
+         * Tells whether matched books must be processed one at a time, in the order they were read.
+         */
+        public boolean isOrdered() {
+            return requiresOrderedProcessing();
+        }
+
+        /**
+         * Applies the filter to the given book on the current thread, returning the book along with
+         * any captured match info if it passes, or null otherwise.
+         */
+        public MatchedBook filter(final Book book) {
+            scanCount.incrementAndGet();
+            if (metered) {
+                Metrics.BOOKS_SCANNED.increment();
+            }
+            if (captureMatchInfo) {
+                matchInfo.set(new StringBuilder());
+            }
+            if (filter.test(book)) {
+                return new MatchedBook(book, captureMatchInfo ? matchInfo.get().toString() : null);
+            }
+            return null;
+        }
+
+        /**
+         * Processes a matched book on the current thread, unless the limit has been reached.
+         */
+        public void process(final MatchedBook matchedBook) {
+            if (reserved.getAndIncrement() >= limit) {
+                reserved.decrementAndGet();
+                return;
+            }
+            boolean processed = false;
+            try {
+                matchCount.incrementAndGet();
+                if (metered) {
+                    Metrics.BOOKS_MATCHED.increment();
+                }
+                if (captureMatchInfo) {
+                    matchInfo.set(new StringBuilder(matchedBook.matchInfo));
+                }
+                final long start = Metrics.PROCESS.start();
+                processed = test(matchedBook.book);
+                if (metered) {
+                    Metrics.PROCESS.stop(start);
+                }
+                if (processed) {
+                    processCount.incrementAndGet();
+                }
+            } finally {
+                if (!processed) {
+                    reserved.decrementAndGet(); // let another book take its place
+                }
+            }
+        }
+
+        public void finish(boolean completed) {
+            afterScan(completed);
+        }
+    }
+
+    public static final class MatchedBook
+    {
+        private final Book book;
+        private final String matchInfo;
+
+        private MatchedBook(Book book, String matchInfo) {
+            this.book = book;
+            this.matchInfo = matchInfo;
         }
     }
 }
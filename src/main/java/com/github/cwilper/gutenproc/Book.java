@@ -1,46 +1,78 @@
 package com.github.cwilper.gutenproc;
 
+import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
-import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.pdmodel.PDPage;
-import org.apache.pdfbox.pdmodel.edit.PDPageContentStream;
-import org.apache.pdfbox.pdmodel.font.PDFont;
-import org.apache.pdfbox.pdmodel.font.PDType1Font;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.charset.UnsupportedCharsetException;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Enumeration;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.function.Predicate;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 public class Book
 {
+    private final DVD dvd;
+
     private final Map<Field, List<String>> metadata;
 
-    private Optional<List<String>> plaintextContent = null;
+    private ComputedMetadata.Entry computed;
+
+    private volatile File file;
+
+    private volatile FileStamp fileStamp;
+
+    private volatile ZipInfo zipInfo;
+
+    private int ordinal = -1;
 
-    private Optional<List<String>> plaintextContentNormalized = null;
+    private int pinCount;
 
-    private Integer lineCount;
+    private volatile PinnedText pinnedText;
 
-    protected Book(Map<Field, List<String>> metadata) {
+    /**
+     * Receives the lines of a book's plaintext, one at a time.
+     */
+    @FunctionalInterface
+    public interface LineVisitor
+    {
+        /**
+         * Visits a line, returning false if no more lines are needed.
+         *
+         * @param lineNum the 1-based number of the line.
+         */
+        boolean visit(int lineNum, String line);
+    }
+
+    protected Book(DVD dvd, Map<Field, List<String>> metadata) {
+        this.dvd = dvd;
         this.metadata = metadata;
     }
 
+    /**
+     * Gets the book's position among all books on the DVD, or -1 if it's not known.
+     */
+    public int getOrdinal() {
+        return ordinal;
+    }
+
+    void setOrdinal(int ordinal) {
+        this.ordinal = ordinal;
+    }
+
     public boolean has(Field field) {
         return metadata.containsKey(field);
     }
@@ -103,20 +135,70 @@ public class Book
         }
     }
 
-    public synchronized Optional<List<String>> getPlaintextContent(boolean normalize) {
-        if (plaintextContent == null) {
-            plaintextContent = getPlaintextContent();
+    /**
+     * Reads all lines of plaintext into memory. Where possible, use {@link #scanPlaintext} instead.
+     */
+    public Optional<List<String>> getPlaintextContent(boolean normalize) {
+        final List<String> lines = Lists.newArrayList();
+        if (scanPlaintext(normalize, (lineNum, line) -> lines.add(line))) {
+            return Optional.of(lines);
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Streams the lines of plaintext through the given visitor until it returns false or there are no
+     * more lines. Nothing is retained after this method returns.
+     *
+     * @return false if no plaintext is available (in which case the visitor is never called).
+     */
+    public boolean scanPlaintext(boolean normalize, LineVisitor visitor) {
+        final Optional<Corpus> corpus = dvd == null ? Optional.empty() : dvd.getCorpus();
+        if (corpus.isPresent()) {
+            final Corpus.Entry entry = corpus.get().entry(this);
+            if (entry != null) {
+                return corpus.get().scan(entry, normalize, visitor);
+            }
+        }
+        final PinnedText pinned = pinnedText;
+        if (pinned != null) {
+            return pinned.scan(normalize, visitor);
         }
-        if (!plaintextContent.isPresent()) {
-            return Optional.empty();
+        final ComputedMetadata.Entry computed = getComputed();
+        if (computed.getRawLineCount() == -1 || normalize && computed.getLineCount() == -1) {
+            return false; // already known to be unavailable
         }
+        return scanPlaintext(normalize, visitor, this::scanPlaintext);
+    }
+
+    private static boolean scanPlaintext(boolean normalize, LineVisitor visitor, Predicate<LineVisitor> source) {
         if (normalize) {
-            if (plaintextContentNormalized == null) {
-                plaintextContentNormalized = Optional.ofNullable(normalizeText(plaintextContent.get()));
+            final Normalizer normalizer = new Normalizer(visitor);
+            try {
+                return source.test(normalizer) && normalizer.finish();
+            } finally {
+                Metrics.NORMALIZE.add(normalizer.nanos);
             }
-            return plaintextContentNormalized;
-        } else {
-            return plaintextContent;
+        }
+        return source.test(visitor);
+    }
+
+    /**
+     * Keeps the plaintext in memory once it's first scanned, so it's read from the DVD at most once
+     * until {@link #unpinText()} is called, however many times it's scanned in the meantime. Calls
+     * may be nested, and the text is released when the last one is undone. Text in the packed corpus
+     * is never pinned, since it's already in memory.
+     */
+    public synchronized void pinText() {
+        if (pinCount++ == 0) {
+            pinnedText = new PinnedText();
+        }
+    }
+
+    public synchronized void unpinText() {
+        Preconditions.checkState(pinCount > 0, "Text is not pinned");
+        if (--pinCount == 0) {
+            pinnedText = null;
         }
     }
 
@@ -127,107 +209,225 @@ public class Book
     }
 
     public boolean writePdf(File file, boolean normalize) {
-        Optional<List<String>> content = getPlaintextContent(normalize);
-        if (!content.isPresent()) {
-            return false;
-        }
-
-        PDDocument document = new PDDocument();
-        PDFont font = PDType1Font.COURIER;
+        final PdfWriter[] writer = new PdfWriter[1];
+        final long[] nanos = new long[1];
+        boolean available = false;
         try {
-            PDPage page = null;
-            PDPageContentStream contentStream = null;
-            int i = 0;
-            for (String line : content.get()) {
-                if (page == null) {
-                    page = new PDPage(PDPage.PAGE_SIZE_LETTER);
-                    contentStream = new PDPageContentStream(document, page);
-                    contentStream.setFont(font, 11);
-                    contentStream.beginText();
-                    contentStream.moveTextPositionByAmount(65, 735);
-                }
-                contentStream.moveTextPositionByAmount(0, -13);
-                contentStream.drawString(line);
-                i++;
-                if (i == 51) {
-                    contentStream.endText();
-                    contentStream.close();
-                    document.addPage(page);
-                    page = null;
-                    contentStream = null;
-                    i = 0;
+            available = scanPlaintext(normalize, (lineNum, line) -> {
+                final long start = System.nanoTime();
+                try {
+                    if (writer[0] == null) {
+                        writer[0] = new PdfWriter(new FileOutputStream(file));
+                    }
+                    writer[0].addLine(line);
+                } catch (IOException e) {
+                    throw Throwables.propagate(e);
                 }
+                nanos[0] += System.nanoTime() - start;
+                return true;
+            });
+            if (available && writer[0] == null) {
+                writer[0] = new PdfWriter(new FileOutputStream(file));
             }
-            if (page != null) {
-                contentStream.endText();
-                contentStream.close();
-                document.addPage(page);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        } finally {
+            if (writer[0] != null) {
+                final long start = System.nanoTime();
+                try {
+                    writer[0].close();
+                } catch (IOException e) {
+                    Throwables.propagate(e);
+                }
+                Metrics.PDF_RENDER.add(nanos[0] + System.nanoTime() - start);
+                if (available) {
+                    Metrics.BYTES_WRITTEN.add(file.length());
+                } else {
+                    // the text couldn't be read in full
+                    file.delete();
+                }
             }
-
-            document.save(file);
-            document.close();
-        } catch (Exception e) {
-            Throwables.propagate(e);
         }
-        return true;
+        return available;
     }
 
     public File getFile() {
-        return GutenProc.getFileCaseInsensitive(getFirst(Field.PATH).get()).get();
+        File file = this.file;
+        if (file == null) {
+            file = GutenProc.getFileCaseInsensitive(getFirst(Field.PATH).get()).get();
+            this.file = file;
+        }
+        return file;
+    }
+
+    /**
+     * Gets the size and last modified time of the book's file, as they were when first asked for.
+     */
+    FileStamp getFileStamp() {
+        FileStamp fileStamp = this.fileStamp;
+        if (fileStamp == null) {
+            final Optional<File> file = this.file != null ? Optional.of(this.file)
+                    : GutenProc.getFileCaseInsensitive(getFirst(Field.PATH).get());
+            fileStamp = file.isPresent() ? FileStamp.of(file.get().toPath()) : FileStamp.UNKNOWN;
+            this.fileStamp = fileStamp;
+        }
+        return fileStamp;
     }
 
     public boolean isZipped() {
         return getFile().getName().endsWith(".zip");
     }
 
+    /**
+     * Gets the number of entries in the book's zip file, 0 if it's not zipped, or -1 if it's unreadable.
+     */
     public int zipEntryCount() {
-        if (isZipped()) {
-            try {
-                return new ZipFile(getFile()).size();
+        if (!isZipped()) {
+            return 0;
+        }
+        synchronized (this) {
+            if (getComputed().getZipEntryCount() == ComputedMetadata.UNKNOWN) {
+                setComputed(getComputed().withZipEntryCount(getZipInfo().getEntryCount()));
+            }
+            return getComputed().getZipEntryCount();
+        }
+    }
+
+    /**
+     * Gets what the book's zip file contains. This is only read from the zip file once.
+     */
+    public ZipInfo getZipInfo() {
+        ZipInfo zipInfo = this.zipInfo;
+        if (zipInfo == null) {
+            try (ZipFile zipFile = new ZipFile(getFile())) {
+                zipInfo = getZipInfo(zipFile);
             } catch (IOException e) {
-                return -1; // zip not parsable
+                zipInfo = ZipInfo.UNREADABLE;
+                this.zipInfo = zipInfo;
             }
         }
-        return 0;
+        return zipInfo;
     }
 
-    public synchronized int lineCount() {
-        if (lineCount == null) {
-            Optional<List<String>> lines = getPlaintextContent(true);
-            if (lines.isPresent()) {
-                lineCount = 0;
-                for (String line : lines.get()) {
-                    if (!line.isEmpty()) {
-                        lineCount++;
-                    }
+    private ZipInfo getZipInfo(ZipFile zipFile) {
+        ZipInfo zipInfo = this.zipInfo;
+        if (zipInfo == null) {
+            zipInfo = ZipInfo.of(zipFile);
+            this.zipInfo = zipInfo;
+        }
+        return zipInfo;
+    }
+
+    /**
+     * Gets the number of non-blank lines of normalized plaintext, or -1 if none is available.
+     */
+    public int lineCount() {
+        return countLines().getLineCount();
+    }
+
+    /**
+     * Gets the number of lines of raw plaintext, or -1 if none is available.
+     */
+    public int rawLineCount() {
+        return countLines().getRawLineCount();
+    }
+
+    /**
+     * Gets what's been computed about the book's file so far, taken from the DVD's computed metadata
+     * if the file hasn't changed since it was saved.
+     */
+    private synchronized ComputedMetadata.Entry getComputed() {
+        if (computed == null) {
+            final Optional<ComputedMetadata> computedMetadata = dvd == null ? Optional.empty()
+                    : dvd.getComputedMetadata();
+            computed = computedMetadata.isPresent() ? computedMetadata.get().get(this)
+                    : ComputedMetadata.Entry.UNSAVED;
+        }
+        return computed;
+    }
+
+    private synchronized void setComputed(ComputedMetadata.Entry computed) {
+        this.computed = computed;
+        if (dvd != null) {
+            dvd.getComputedMetadata().ifPresent(computedMetadata -> computedMetadata.put(this, computed));
+        }
+    }
+
+    /**
+     * Counts both raw and normalized lines, if they aren't already known, in a single scan of the raw
+     * text that's normalized as it goes.
+     */
+    private synchronized ComputedMetadata.Entry countLines() {
+        if (getComputed().getLineCount() == ComputedMetadata.UNKNOWN) {
+            final int[] counts = new int[2]; // raw, normalized
+            final Normalizer normalizer = new Normalizer((lineNum, line) -> {
+                if (!line.isEmpty()) {
+                    counts[1]++;
                 }
-            } else {
-                return -1;
+                return true;
+            });
+            final boolean[] normalizing = { true };
+            final boolean available;
+            final boolean normalized;
+            try {
+                available = scanPlaintext(false, (lineNum, line) -> {
+                    counts[0]++;
+                    if (normalizing[0]) {
+                        normalizing[0] = normalizer.visit(lineNum, line);
+                    }
+                    return true;
+                });
+                normalized = available && normalizer.finish();
+            } finally {
+                Metrics.NORMALIZE.add(normalizer.nanos);
             }
+            ComputedMetadata.Entry computed = getComputed().withLineCounts(normalized ? counts[1] : -1,
+                    available ? counts[0] : -1);
+            final ZipInfo zipInfo = this.zipInfo;
+            if (zipInfo != null && isZipped()) {
+                computed = computed.withZipEntryCount(zipInfo.getEntryCount()); // read along the way
+            }
+            setComputed(computed);
         }
-        return lineCount;
+        return getComputed();
     }
 
-    private Optional<List<String>> getPlaintextContent() {
+    private boolean scanPlaintext(LineVisitor visitor) {
         final String format = getFirst(Field.FORMAT).get();
         try {
             final Optional<Charset> charset = getCharset(format);
             if (charset.isPresent()) {
                 if (getFile().getName().endsWith(".txt")) {
-                    return Optional.of(Files.readAllLines(getFile().toPath(), charset.get()));
-                } else if (zipEntryCount() == 1 && format.startsWith("text/plain")) {
-                    final Optional<Stream<String>> text = getPlaintextContentFromZip(new ZipFile(getFile()), charset.get());
-                    if (text.isPresent()) {
-                        final List<String> lines = text.get().collect(Collectors.toList());
-                        text.get().close();
-                        return Optional.of(lines);
+                    final long start = Metrics.TEXT_LOAD.start();
+                    try (InputStream in = new MeteredInputStream(new FileInputStream(getFile()), start,
+                            Metrics.TEXT_LOAD, Metrics.BYTES_READ)) {
+                        final Optional<char[]> table = SingleByteLineReader.table(charset.get());
+                        if (table.isPresent()) {
+                            SingleByteLineReader.scan(in, table.get(), true, visitor);
+                        } else {
+                            // reports malformed input, as Files.newBufferedReader does
+                            scanLines(new BufferedReader(new InputStreamReader(in, charset.get().newDecoder())), visitor);
+                        }
+                        return true;
                     }
+                } else if (isZipped() && format.startsWith("text/plain")) {
+                    return scanPlaintextFromZip(charset.get(), visitor);
                 }
             }
         } catch (IOException e) {
             Throwables.propagate(e);
         }
-        return Optional.empty();
+        return false;
+    }
+
+    private static void scanLines(BufferedReader reader, LineVisitor visitor) throws IOException {
+        int lineNum = 0;
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!visitor.visit(++lineNum, line)) {
+                return;
+            }
+        }
     }
 
     private static Optional<Charset> getCharset(String format) {
@@ -250,63 +450,217 @@ public class Book
         return Optional.empty();
     }
 
-    private static Optional<Stream<String>> getPlaintextContentFromZip(ZipFile zipFile, Charset charset) {
-        try {
-            Enumeration<? extends ZipEntry> entries = zipFile.entries();
-            ZipEntry textEntry = null;
-            int textEntryCount = 0;
-            while (entries.hasMoreElements()) {
-                ZipEntry entry = entries.nextElement();
-                if (entry.getName().endsWith(".txt")) {
-                    textEntry = entry;
-                    textEntryCount++;
-                }
+    /**
+     * Reads plaintext from the book's zip file, opening it only once, and not at all if it's already
+     * known to hold anything but a single .txt file.
+     */
+    private boolean scanPlaintextFromZip(Charset charset, LineVisitor visitor) {
+        if (zipInfo != null && !zipInfo.getTextEntryName().isPresent()) {
+            return false;
+        }
+        final long openStart = Metrics.TEXT_LOAD.start();
+        try (ZipFile zipFile = new ZipFile(getFile())) {
+            final Optional<String> textEntryName = getZipInfo(zipFile).getTextEntryName();
+            Metrics.TEXT_LOAD.stop(openStart);
+            if (!textEntryName.isPresent()) {
+                return false; // no text entry, or other entries too (ambiguous); skip
             }
-            if (textEntryCount == 1) {
-                InputStream inputStream = zipFile.getInputStream(textEntry);
-                BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, charset));
-                return Optional.of(reader.lines());
+            final ZipEntry entry = zipFile.getEntry(textEntryName.get());
+            final long start = Metrics.TEXT_INFLATE.start();
+            final InputStream inputStream = new MeteredInputStream(zipFile.getInputStream(entry), start,
+                    Metrics.TEXT_INFLATE, Metrics.BYTES_INFLATED);
+            Metrics.BYTES_READ.add(Math.max(entry.getCompressedSize(), 0));
+            final Optional<char[]> table = SingleByteLineReader.table(charset);
+            if (table.isPresent()) {
+                try (InputStream in = inputStream) {
+                    SingleByteLineReader.scan(in, table.get(), false, visitor);
+                }
+            } else {
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, charset))) {
+                    scanLines(reader, visitor);
+                }
             }
-            return Optional.empty(); // no text entry, or more than one (ambiguous); skip
+            return true;
         } catch (IOException e) {
-            return Optional.empty(); // bad zip or bad text file within; skip
+            if (zipInfo == null) {
+                zipInfo = ZipInfo.UNREADABLE;
+            }
+            return false; // bad zip or bad text file within; skip
+        } catch (UncheckedIOException e) {
+            return false; // bad text file within; skip
         }
     }
 
-    private static List<String> normalizeText(List<String> input) {
-        List<String> lines = Lists.newArrayList();
-        boolean skipNextIfBlank = true;
-        for (String line : input) {
-            String lc = line.toLowerCase();
-            if (lc.contains("project gutenberg") || lc.contains("public domain") || lc.contains(" etext") || (lc.contains("gutenberg") && lc.contains("http"))) {
-                if (lines.size() > 90) {
-                    // must be near the end. stop adding text to our list
-                    // and ensure the last line is not blank
-                    if (lines.get(lines.size() - 1).length() == 0) {
-                        lines.remove(lines.size() - 1);
-                    }
+    /**
+     * Plaintext held in memory while pinned, read in full the first time it's needed. Normalized text
+     * is kept too, once it's been asked for.
+     */
+    private final class PinnedText
+    {
+        private Optional<List<String>> raw;
+
+        private Optional<List<String>> normalized;
+
+        private synchronized boolean scan(boolean normalize, LineVisitor visitor) {
+            if (raw == null) {
+                final List<String> lines = Lists.newArrayList();
+                raw = scanPlaintext((lineNum, line) -> lines.add(line)) ? Optional.of(lines) : Optional.empty();
+            }
+            if (normalize && normalized == null) {
+                final List<String> lines = Lists.newArrayList();
+                normalized = raw.isPresent() && scanPlaintext(true, (lineNum, line) -> lines.add(line),
+                        normalizer -> replay(raw.get(), normalizer)) ? Optional.of(lines) : Optional.empty();
+            }
+            final Optional<List<String>> text = normalize ? normalized : raw;
+            if (text.isPresent()) {
+                replay(text.get(), visitor);
+                return true;
+            }
+            return false;
+        }
+
+        private boolean replay(List<String> lines, LineVisitor visitor) {
+            for (int i = 0; i < lines.size(); i++) {
+                if (!visitor.visit(i + 1, lines.get(i))) {
                     break;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Strips Project Gutenberg header and footer text, trailing whitespace, and runs of blank lines
+     * from the lines it visits, passing the rest on to another visitor.
+     *
+     * Boilerplate seen within the first 90 lines is taken to be the end of the header, so that many
+     * lines are held back until it's clear the header is over. Text with fewer than 80 lines left after
+     * stripping looks like a descriptor rather than a book, and is considered unavailable.
+     */
+    private static final class Normalizer implements LineVisitor
+    {
+        private final LineVisitor visitor;
+
+        private final List<String> lines = Lists.newArrayList();
+
+        private boolean streaming;
+
+        private boolean pendingBlank;
+
+        private boolean skipNextIfBlank = true;
+
+        private boolean stopped;
+
+        private int lineNum;
+
+        /**
+         * Time spent deciding what to do with each line, not counting the time taken by the visitor.
+         */
+        private long nanos;
+
+        private Normalizer(LineVisitor visitor) {
+            this.visitor = visitor;
+        }
+
+        @Override
+        public boolean visit(int rawLineNum, String line) {
+            final long start = System.nanoTime();
+            String lc = line.toLowerCase();
+            final boolean boilerplate = lc.contains("project gutenberg") || lc.contains("public domain") || lc.contains(" etext") || (lc.contains("gutenberg") && lc.contains("http"));
+            final boolean blank = !boilerplate && isBlank(line);
+            final String stripped = boilerplate || blank ? null : stripTrailingWhitespace(line);
+            nanos += System.nanoTime() - start;
+            if (boilerplate) {
+                if (streaming) {
+                    // must be near the end. stop passing on text and ensure the last line is not blank
+                    stopped = true;
+                    return false;
                 } else {
                     // must be near beginning; ignore everything we've saved up to now,
                     // since we haven't reached the actual text yet
                     lines.clear();
                     skipNextIfBlank = true;
                 }
-            } else if (line.trim().length() == 0) {
+            } else if (blank) {
                 if (!skipNextIfBlank) {
                     // only add blank line if previous existed and wasn't blank, else skip
-                    lines.add("");
+                    add("");
                     skipNextIfBlank = true;
                 }
             } else {
                 // add non-blank line, stripping any trailing whitespace
-                lines.add(line.replaceFirst("\\s+$", ""));
+                add(stripped);
                 skipNextIfBlank = false;
             }
+            return !stopped;
+        }
+
+        private void add(String line) {
+            if (streaming) {
+                // hold back blank lines until we know they aren't the last one
+                if (line.isEmpty()) {
+                    pendingBlank = true;
+                } else {
+                    if (pendingBlank) {
+                        pendingBlank = false;
+                        pass("");
+                    }
+                    pass(line);
+                }
+            } else {
+                lines.add(line);
+                if (lines.size() > 90) {
+                    streaming = true;
+                    for (String saved : lines) {
+                        add(saved);
+                    }
+                    lines.clear();
+                }
+            }
         }
-        if (lines.size() < 80) { // didn't see much non-gutenberg text; looks like a descriptor, not a text
-            return null;
+
+        private void pass(String line) {
+            if (!stopped && !visitor.visit(++lineNum, line)) {
+                stopped = true;
+            }
+        }
+
+        /**
+         * Passes on any remaining lines, returning false if the text was too short to be considered a book.
+         */
+        private boolean finish() {
+            if (!streaming) {
+                if (lines.size() < 80) { // didn't see much non-gutenberg text; looks like a descriptor, not a text
+                    return false;
+                }
+                for (String line : lines) {
+                    pass(line);
+                }
+            } else if (pendingBlank && !stopped) {
+                pass("");
+            }
+            return true;
+        }
+
+        private static boolean isBlank(String line) {
+            for (int i = 0; i < line.length(); i++) {
+                if (line.charAt(i) > ' ') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static String stripTrailingWhitespace(String line) {
+            int end = line.length();
+            while (end > 0 && isRegexWhitespace(line.charAt(end - 1))) {
+                end--;
+            }
+            return end == line.length() ? line : line.substring(0, end);
+        }
+
+        private static boolean isRegexWhitespace(char c) {
+            return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
         }
-        return lines;
     }
 }
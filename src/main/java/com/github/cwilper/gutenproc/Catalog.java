@@ -0,0 +1,155 @@
+package com.github.cwilper.gutenproc;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A compact, binary snapshot of the metadata of every book on the DVD.
+ *
+ * The catalog is written once after the index pages have been parsed, and is loaded
+ * (via a memory-mapped read) on subsequent runs instead of parsing the pages again.
+ * Each catalog records a fingerprint of the index directory, and is considered stale
+ * as soon as any index file is added, removed, resized, or touched.
+ *
+ * Metadata values are dictionary-encoded: each distinct string is stored once, and books
+ * refer to values by their position in the string table.
+ */
+final class Catalog
+{
+    private static final int MAGIC = 0x47504354; // "GPCT"
+
+    private static final int VERSION = 1;
+
+    private Catalog() { }
+
+    /**
+     * Computes a fingerprint of the index directory that changes whenever any file in it
+     * is added, removed, resized, or modified. The result does not depend on listing order.
+     */
+    static long fingerprint(Path indexPath) throws IOException {
+        long fingerprint = 0;
+        try (Stream<Path> paths = Files.list(indexPath)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                final BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                fingerprint += Hashing.murmur3_128().newHasher()
+                        .putString(path.getFileName().toString(), UTF_8)
+                        .putLong(attrs.size())
+                        .putLong(attrs.lastModifiedTime().toMillis())
+                        .hash().asLong();
+            }
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Loads the books in the given catalog file, if it exists and matches the given fingerprint.
+     */
+    static Optional<List<Book>> read(DVD dvd, Path file, long fingerprint) throws IOException {
+        if (!Files.isRegularFile(file)) {
+            return Optional.empty();
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 16 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                    || buffer.getLong() != fingerprint) {
+                return Optional.empty();
+            }
+            final String[] strings = new String[buffer.getInt()];
+            byte[] bytes = new byte[256];
+            for (int i = 0; i < strings.length; i++) {
+                final int length = buffer.getInt();
+                if (length > bytes.length) {
+                    bytes = new byte[length];
+                }
+                buffer.get(bytes, 0, length);
+                strings[i] = new String(bytes, 0, length, UTF_8);
+            }
+            final Field[] fields = Field.values();
+            final int bookCount = buffer.getInt();
+            final List<Book> books = Lists.newArrayListWithCapacity(bookCount);
+            for (int i = 0; i < bookCount; i++) {
+                final int fieldCount = buffer.get();
+                final Map<Field, List<String>> metadata = new EnumMap<>(Field.class);
+                for (int j = 0; j < fieldCount; j++) {
+                    final Field field = fields[buffer.get()];
+                    final int valueCount = buffer.getInt();
+                    final List<String> values = Lists.newArrayListWithCapacity(valueCount);
+                    for (int k = 0; k < valueCount; k++) {
+                        values.add(strings[buffer.getInt()]);
+                    }
+                    metadata.put(field, values);
+                }
+                books.add(new Book(dvd, metadata));
+            }
+            return Optional.of(books);
+        } catch (RuntimeException e) {
+            return Optional.empty(); // truncated or otherwise unreadable; will be rebuilt
+        }
+    }
+
+    /**
+     * Writes the given books to a catalog file with the given fingerprint, replacing any existing one.
+     */
+    static void write(Path file, long fingerprint, List<Book> books) throws IOException {
+        final Map<String, Integer> stringIds = Maps.newHashMap();
+        final List<String> strings = Lists.newArrayList();
+        for (Book book : books) {
+            for (Field field : book.fields()) {
+                for (String value : book.get(field).get()) {
+                    if (!stringIds.containsKey(value)) {
+                        stringIds.put(value, strings.size());
+                        strings.add(value);
+                    }
+                }
+            }
+        }
+        Files.createDirectories(file.getParent());
+        final Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tempFile);
+             DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 1 << 16))) {
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeLong(fingerprint);
+            data.writeInt(strings.size());
+            for (String string : strings) {
+                final byte[] bytes = string.getBytes(UTF_8);
+                data.writeInt(bytes.length);
+                data.write(bytes);
+            }
+            data.writeInt(books.size());
+            for (Book book : books) {
+                final List<Field> fields = Lists.newArrayList(book.fields());
+                data.writeByte(fields.size());
+                for (Field field : fields) {
+                    final List<String> values = book.get(field).get();
+                    data.writeByte(field.ordinal());
+                    data.writeInt(values.size());
+                    for (String value : values) {
+                        data.writeInt(stringIds.get(value));
+                    }
+                }
+            }
+        }
+        Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -3,7 +3,10 @@ package com.github.cwilper.gutenproc;
 import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
 import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
 
 import java.util.Arrays;
 import java.util.List;
@@ -17,6 +20,13 @@ public class Commandline
         this.cmd = cmd;
     }
 
+    /**
+     * Parses the given arguments, which may include any of the given options.
+     */
+    public static Commandline parse(Options options, String... args) throws ParseException {
+        return new Commandline(new DefaultParser().parse(options, args));
+    }
+
     public List<String> getArguments() {
         return cmd.getArgList();
     }
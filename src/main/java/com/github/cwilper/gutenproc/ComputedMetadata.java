@@ -0,0 +1,211 @@
+package com.github.cwilper.gutenproc;
+
+import com.google.common.collect.Maps;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Facts about each book that can only be had by reading its file, such as how many lines of text it
+ * has, saved so each is computed at most once.
+ *
+ * Facts are keyed by the book's path, and recorded along with the size and last modified time of
+ * its file at the time. They're only used while both still match, so a book whose file has changed
+ * is read again. New facts are computed as they're needed, and saved when the run is done.
+ */
+final class ComputedMetadata
+{
+    static final String FILENAME = "computed.bin";
+
+    /**
+     * The value of a fact that hasn't been computed yet.
+     */
+    static final int UNKNOWN = -2;
+
+    private static final int MAGIC = 0x47504346; // "GPCF"
+
+    private static final int VERSION = 1;
+
+    private final Path file;
+
+    private final Map<String, Entry> entries;
+
+    private volatile boolean dirty;
+
+    private ComputedMetadata(Path file, Map<String, Entry> entries) {
+        this.file = file;
+        this.entries = entries;
+    }
+
+    /**
+     * What's known about a book's file. Line counts and the zip entry count are -1 if there's no
+     * usable plaintext or the zip file is unreadable, and {@link #UNKNOWN} until they're computed.
+     */
+    static final class Entry
+    {
+        /**
+         * An entry for a book whose file couldn't be checked, or when there's nowhere to save it.
+         * Facts added to it are kept with the book, but never saved.
+         */
+        static final Entry UNSAVED = new Entry(FileStamp.UNKNOWN, UNKNOWN, UNKNOWN, UNKNOWN);
+
+        private final FileStamp fileStamp;
+        private final int lineCount;
+        private final int rawLineCount;
+        private final int zipEntryCount;
+
+        private Entry(FileStamp fileStamp, int lineCount, int rawLineCount, int zipEntryCount) {
+            this.fileStamp = fileStamp;
+            this.lineCount = lineCount;
+            this.rawLineCount = rawLineCount;
+            this.zipEntryCount = zipEntryCount;
+        }
+
+        /**
+         * Gets the number of non-blank lines of normalized plaintext.
+         */
+        int getLineCount() {
+            return lineCount;
+        }
+
+        /**
+         * Gets the number of lines of raw plaintext, which is -1 if it can't be decoded.
+         */
+        int getRawLineCount() {
+            return rawLineCount;
+        }
+
+        int getZipEntryCount() {
+            return zipEntryCount;
+        }
+
+        Entry withLineCounts(int lineCount, int rawLineCount) {
+            return new Entry(fileStamp, lineCount, rawLineCount, zipEntryCount);
+        }
+
+        Entry withZipEntryCount(int zipEntryCount) {
+            return new Entry(fileStamp, lineCount, rawLineCount, zipEntryCount);
+        }
+    }
+
+    /**
+     * Opens the computed metadata saved in the given directory, or starts afresh if there is none
+     * or it can't be read.
+     */
+    static ComputedMetadata open(Path dir) {
+        final Path file = dir.resolve(FILENAME);
+        final Map<String, Entry> entries = new ConcurrentHashMap<>();
+        if (Files.isRegularFile(file)) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (buffer.remaining() >= 12 && buffer.getInt() == MAGIC && buffer.getInt() == VERSION) {
+                    final int count = buffer.getInt();
+                    byte[] bytes = new byte[256];
+                    for (int i = 0; i < count; i++) {
+                        final int length = buffer.getInt();
+                        if (length > bytes.length) {
+                            bytes = new byte[length];
+                        }
+                        buffer.get(bytes, 0, length);
+                        entries.put(new String(bytes, 0, length, UTF_8), new Entry(FileStamp.read(buffer),
+                                buffer.getInt(), buffer.getInt(), buffer.getInt()));
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Warning: Ignoring unreadable computed metadata " + file + ": " + e);
+                entries.clear();
+            }
+        }
+        return new ComputedMetadata(file, entries);
+    }
+
+    /**
+     * Gets what's known about the book's file as it is now. If nothing is, or the file has changed
+     * since, the entry has no facts yet.
+     */
+    Entry get(Book book) {
+        final FileStamp fileStamp = book.getFileStamp();
+        if (!fileStamp.isKnown()) {
+            return Entry.UNSAVED;
+        }
+        final Entry entry = entries.get(key(book));
+        if (entry != null && entry.fileStamp.matches(fileStamp)) {
+            return entry;
+        }
+        return new Entry(fileStamp, UNKNOWN, UNKNOWN, UNKNOWN);
+    }
+
+    /**
+     * Records what's known about the book's file, to be saved later.
+     */
+    void put(Book book, Entry entry) {
+        if (entry.fileStamp.isKnown()) {
+            entries.put(key(book), entry);
+            dirty = true;
+        }
+    }
+
+    /**
+     * Gets the number of books whose line counts are known, whether or not their files have changed.
+     */
+    int getLineCountsKnown() {
+        int count = 0;
+        for (Entry entry : entries.values()) {
+            if (entry.lineCount != UNKNOWN) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Saves everything recorded so far, replacing the existing file, if anything's been recorded
+     * since it was last saved.
+     */
+    synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        dirty = false;
+        final Map<String, Entry> snapshot = Maps.newHashMap(entries);
+        final Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            try (OutputStream out = Files.newOutputStream(tempFile);
+                 DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 1 << 16))) {
+                data.writeInt(MAGIC);
+                data.writeInt(VERSION);
+                data.writeInt(snapshot.size());
+                for (Map.Entry<String, Entry> entry : snapshot.entrySet()) {
+                    final byte[] bytes = entry.getKey().getBytes(UTF_8);
+                    data.writeInt(bytes.length);
+                    data.write(bytes);
+                    entry.getValue().fileStamp.write(data);
+                    data.writeInt(entry.getValue().lineCount);
+                    data.writeInt(entry.getValue().rawLineCount);
+                    data.writeInt(entry.getValue().zipEntryCount);
+                }
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            dirty = true; // try again next time
+            throw e;
+        }
+    }
+
+    private static String key(Book book) {
+        return book.getFirst(Field.PATH).get();
+    }
+}
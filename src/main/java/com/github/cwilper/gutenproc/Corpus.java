@@ -0,0 +1,271 @@
+package com.github.cwilper.gutenproc;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A packed copy of the plaintext of every book, so text can be scanned without going back to
+ * the DVD's zip files.
+ *
+ * Raw and normalized text are stored uncompressed as UTF-8, one newline-terminated line at a time,
+ * in data files of up to 1GB that are memory-mapped when first needed. A separate index file maps
+ * each EText number to the location of its text, and also records books without usable plaintext,
+ * so those can be ruled out without opening their files. The size and last modified time of each
+ * book's file are recorded too, and books whose files have changed since are read from the DVD.
+ */
+public final class Corpus
+{
+    public static final String INDEX_FILENAME = "corpus.idx";
+
+    private static final int MAGIC = 0x47504350; // "GPCP"
+
+    private static final int VERSION = 2;
+
+    private static final long MAX_DATA_FILE_SIZE = 1L << 30;
+
+    private final Path dir;
+
+    private final Map<String, Entry> entries;
+
+    private final MappedByteBuffer[] dataFiles;
+
+    private Corpus(Path dir, Map<String, Entry> entries, int dataFileCount) {
+        this.dir = dir;
+        this.entries = entries;
+        this.dataFiles = new MappedByteBuffer[dataFileCount];
+    }
+
+    /**
+     * The location of a book's text within the corpus.
+     */
+    static final class Entry
+    {
+        private final int dataFile;
+        private final int offset;
+        private final int rawLength;
+        private final int normalizedLength;
+        private final FileStamp fileStamp;
+
+        private Entry(int dataFile, int offset, int rawLength, int normalizedLength, FileStamp fileStamp) {
+            this.dataFile = dataFile;
+            this.offset = offset;
+            this.rawLength = rawLength;
+            this.normalizedLength = normalizedLength;
+            this.fileStamp = fileStamp;
+        }
+    }
+
+    /**
+     * Opens the corpus in the given directory, if one has been packed there.
+     */
+    public static Optional<Corpus> open(Path dir) {
+        final Path indexFile = dir.resolve(INDEX_FILENAME);
+        if (!Files.isRegularFile(indexFile)) {
+            return Optional.empty();
+        }
+        try (InputStream in = Files.newInputStream(indexFile);
+             DataInputStream data = new DataInputStream(new BufferedInputStream(in, 1 << 16))) {
+            if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+                return Optional.empty();
+            }
+            final int dataFileCount = data.readInt();
+            final int entryCount = data.readInt();
+            final Map<String, Entry> entries = Maps.newHashMapWithExpectedSize(entryCount);
+            for (int i = 0; i < entryCount; i++) {
+                final byte[] etextNo = new byte[data.readInt()];
+                data.readFully(etextNo);
+                entries.put(new String(etextNo, UTF_8),
+                        new Entry(data.readInt(), data.readInt(), data.readInt(), data.readInt(), FileStamp.read(data)));
+            }
+            return Optional.of(new Corpus(dir, entries, dataFileCount));
+        } catch (IOException e) {
+            System.err.println("Warning: Ignoring unreadable corpus " + indexFile + ": " + e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Gets the entry for the given book, or null if it hasn't been packed, or its file has changed since.
+     */
+    Entry entry(Book book) {
+        final Optional<String> etextNo = book.getFirst(Field.ETEXT_NO);
+        final Entry entry = etextNo.isPresent() ? entries.get(etextNo.get()) : null;
+        return entry != null && entry.fileStamp.matches(book.getFileStamp()) ? entry : null;
+    }
+
+    /**
+     * Streams the packed lines of text through the visitor.
+     *
+     * @return false if the book has no usable text of the requested kind.
+     */
+    boolean scan(Entry entry, boolean normalize, Book.LineVisitor visitor) {
+        final int length = normalize ? entry.normalizedLength : entry.rawLength;
+        if (length == -1) {
+            return false;
+        }
+        final int start = normalize ? entry.offset + Math.max(entry.rawLength, 0) : entry.offset;
+        final ByteBuffer buffer = dataFile(entry.dataFile).duplicate();
+        final int end = start + length;
+        byte[] bytes = new byte[256];
+        int lineNum = 0;
+        int lineStart = start;
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) == '\n') {
+                final int lineLength = i - lineStart;
+                if (lineLength > bytes.length) {
+                    bytes = new byte[Math.max(lineLength, bytes.length * 2)];
+                }
+                buffer.position(lineStart);
+                buffer.get(bytes, 0, lineLength);
+                if (!visitor.visit(++lineNum, new String(bytes, 0, lineLength, UTF_8))) {
+                    break;
+                }
+                lineStart = i + 1;
+            }
+        }
+        return true;
+    }
+
+    private synchronized MappedByteBuffer dataFile(int n) {
+        if (dataFiles[n] == null) {
+            try (FileChannel channel = FileChannel.open(dataFilePath(dir, n), StandardOpenOption.READ)) {
+                dataFiles[n] = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+        }
+        return dataFiles[n];
+    }
+
+    private static Path dataFilePath(Path dir, int n) {
+        return dir.resolve(String.format(Locale.ROOT, "corpus-%03d.dat", n));
+    }
+
+    private static Path tempPath(Path path) {
+        return path.resolveSibling(path.getFileName() + ".tmp");
+    }
+
+    /**
+     * Packs a new corpus, replacing any existing one in the same directory when closed.
+     * Books may be added concurrently.
+     */
+    public static final class Writer implements AutoCloseable
+    {
+        private final Path dir;
+
+        private final List<String> etextNos = Lists.newArrayList();
+
+        private final List<Entry> entries = Lists.newArrayList();
+
+        private int dataFileCount;
+
+        private OutputStream out;
+
+        private long offset;
+
+        private long bytesWritten;
+
+        public Writer(Path dir) {
+            this.dir = dir;
+        }
+
+        /**
+         * Adds the given text for a book. Either may be null if the book has no usable text of that kind.
+         */
+        public synchronized void add(Book book, byte[] raw, byte[] normalized) throws IOException {
+            final int rawLength = raw == null ? -1 : raw.length;
+            final int normalizedLength = normalized == null ? -1 : normalized.length;
+            final int length = Math.max(rawLength, 0) + Math.max(normalizedLength, 0);
+            if (out == null || offset + length > MAX_DATA_FILE_SIZE) {
+                nextDataFile();
+            }
+            etextNos.add(book.getFirst(Field.ETEXT_NO).get());
+            entries.add(new Entry(dataFileCount - 1, (int) offset, rawLength, normalizedLength, book.getFileStamp()));
+            if (raw != null) {
+                out.write(raw);
+            }
+            if (normalized != null) {
+                out.write(normalized);
+            }
+            offset += length;
+            bytesWritten += length;
+        }
+
+        public synchronized int getBookCount() {
+            return entries.size();
+        }
+
+        public synchronized long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        private void nextDataFile() throws IOException {
+            if (out != null) {
+                out.close();
+            }
+            Files.createDirectories(dir);
+            out = new BufferedOutputStream(Files.newOutputStream(tempPath(dataFilePath(dir, dataFileCount))), 1 << 16);
+            dataFileCount++;
+            offset = 0;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (out == null) {
+                nextDataFile();
+            }
+            out.close();
+            final Path indexFile = dir.resolve(INDEX_FILENAME);
+            try (OutputStream stream = Files.newOutputStream(tempPath(indexFile));
+                 DataOutputStream data = new DataOutputStream(new BufferedOutputStream(stream, 1 << 16))) {
+                data.writeInt(MAGIC);
+                data.writeInt(VERSION);
+                data.writeInt(dataFileCount);
+                data.writeInt(entries.size());
+                for (int i = 0; i < entries.size(); i++) {
+                    final byte[] etextNo = etextNos.get(i).getBytes(UTF_8);
+                    final Entry entry = entries.get(i);
+                    data.writeInt(etextNo.length);
+                    data.write(etextNo);
+                    data.writeInt(entry.dataFile);
+                    data.writeInt(entry.offset);
+                    data.writeInt(entry.rawLength);
+                    data.writeInt(entry.normalizedLength);
+                    entry.fileStamp.write(data);
+                }
+            }
+            // make sure the old index never points into new data files, even if interrupted
+            Files.deleteIfExists(indexFile);
+            for (int i = 0; i < dataFileCount; i++) {
+                final Path dataFile = dataFilePath(dir, i);
+                Files.move(tempPath(dataFile), dataFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            Files.move(tempPath(indexFile), indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            for (int i = dataFileCount; Files.deleteIfExists(dataFilePath(dir, i)); i++) {
+                // removed a data file left over from a larger corpus
+            }
+        }
+    }
+}
@@ -2,16 +2,13 @@ package com.github.cwilper.gutenproc;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
-import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
@@ -22,86 +19,210 @@ public class DVD
 {
     private final Path dvdPath;
     private final Path indexPath;
+    private final Path cachePath;
+    private final ThreadLocal<IndexPageParser> parser;
+    private Optional<TextIndex> textIndex;
+    private Optional<Corpus> corpus;
+    private Optional<ComputedMetadata> computedMetadata;
+    private boolean corpusEnabled = true;
+    private boolean booksRetained;
+    private List<Book> books;
+    private MetadataIndex metadataIndex;
 
     public DVD(final File file) {
+        this(file, null);
+    }
+
+    /**
+     * Creates an instance that keeps derived data, such as the book catalog, in a subdirectory
+     * of the given cache directory. If the cache directory is null, nothing will be cached.
+     */
+    public DVD(final File file, final File cacheDir) {
         Preconditions.checkArgument(file.isDirectory(), "No such directory: " + file);
         this.dvdPath = file.toPath();
         final String etextPath = dvdPath.resolve("etext").toString();
         final Optional<File> indexDir = GutenProc.getFileCaseInsensitive(etextPath);
         Preconditions.checkArgument(indexDir.isPresent(), "No such directory: " + etextPath);
         indexPath = indexDir.get().toPath();
+        parser = ThreadLocal.withInitial(() -> new IndexPageParser(this, dvdPath));
+        if (cacheDir == null) {
+            cachePath = null;
+        } else {
+            final String key = Hashing.sha1().hashString(dvdPath.toAbsolutePath().toString(), UTF_8).toString();
+            cachePath = cacheDir.toPath().resolve("dvd-" + key.substring(0, 16));
+        }
     }
 
-    public Stream<Book> books() {
-        try {
-            return Files.list(indexPath)
-                    .map(path -> lines(path, UTF_8))
-                    .map(lines -> book(lines));
-                           // lines.collect(Collectors.toList())));
-        } catch (IOException e) {
-            throw Throwables.propagate(e);
+    /**
+     * Gets the directory where data derived from this DVD is cached, if caching is enabled.
+     */
+    public Optional<Path> getCachePath() {
+        return Optional.ofNullable(cachePath);
+    }
+
+    /**
+     * Gets the full-text index built by the index processor, if caching is enabled and it exists.
+     */
+    public synchronized Optional<TextIndex> getTextIndex() {
+        if (textIndex == null) {
+            textIndex = getCachePath().flatMap(path -> TextIndex.open(path.resolve(TextIndex.FILENAME)));
         }
+        return textIndex;
     }
 
-    private Book book(final Stream<String> lines) {
-        final Map<Field, List<String>> metadata = Maps.newHashMap();
-        List<String> formats = Lists.newArrayList();
-        List<String> paths = Lists.newArrayList();
-        Field field = null;
-        boolean inFilesSection = false;
-        for (String line : lines.collect(Collectors.toList())) {
-            if (line.startsWith("<th")) {
-                field = Field.forString(stripTagsAndTrim(line));
-            } else if (line.startsWith("<td")) {
-                String value = stripTagsAndTrim(line);
-                if (!value.isEmpty()) {
-                    List<String> values = metadata.get(field);
-                    if (values == null) {
-                        values = Lists.newArrayList();
-                        metadata.put(field, values);
-                    }
-                    values.add(value);
-                }
-            } else if (line.startsWith("<table><caption>")) {
-                addFileInfo(line.substring(line.indexOf("</tr><tr>") + 5), formats, paths);
-            } else if (inFilesSection) {
-                if (line.startsWith("</table>")) {
-                    inFilesSection = false;
-                } else {
-                    addFileInfo(line, formats, paths);
-                }
+    /**
+     * Gets the packed plaintext corpus built by the pack processor, if caching is enabled, it exists,
+     * and it hasn't been disabled.
+     */
+    public synchronized Optional<Corpus> getCorpus() {
+        if (!corpusEnabled) {
+            return Optional.empty();
+        }
+        if (corpus == null) {
+            corpus = getCachePath().flatMap(Corpus::open);
+        }
+        return corpus;
+    }
+
+    /**
+     * Gets the facts computed from books' files in this and earlier runs, if caching is enabled.
+     */
+    synchronized Optional<ComputedMetadata> getComputedMetadata() {
+        if (computedMetadata == null) {
+            computedMetadata = getCachePath().map(ComputedMetadata::open);
+        }
+        return computedMetadata;
+    }
+
+    /**
+     * Saves any facts computed from books' files since they were last saved, such as their line
+     * counts, so later runs don't have to compute them again.
+     */
+    void saveComputedMetadata() {
+        final Optional<ComputedMetadata> computedMetadata;
+        synchronized (this) {
+            computedMetadata = this.computedMetadata == null ? Optional.empty() : this.computedMetadata;
+        }
+        if (computedMetadata.isPresent()) {
+            try {
+                computedMetadata.get().save();
+            } catch (IOException e) {
+                System.err.println("Warning: Unable to save computed metadata to " + cachePath + ": " + e.getMessage());
             }
         }
-        lines.close();
+    }
+
+    /**
+     * Sets whether books should read plaintext from the packed corpus, when available,
+     * rather than from the DVD. This is true by default.
+     */
+    public synchronized void setCorpusEnabled(boolean corpusEnabled) {
+        this.corpusEnabled = corpusEnabled;
+    }
 
-        // add formats and paths
-        if (!formats.isEmpty()) {
-            metadata.put(Field.FORMAT, formats);
-            metadata.put(Field.PATH, paths);
+    /**
+     * Gets the number of books on the DVD. That's the number of books kept in memory, if they are,
+     * and otherwise the number of pages in the etext index directory.
+     */
+    public int getBookCount() {
+        synchronized (this) {
+            if (cachePath != null || booksRetained) {
+                return retainedBooks().size();
+            }
         }
+        try (Stream<Path> pages = Files.list(indexPath)) {
+            return (int) pages.count();
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
 
-        // add url
-        List<String> urls = Lists.newArrayList();
-        urls.add("https://www.gutenberg.org/ebooks/" + metadata.get(Field.ETEXT_NO).get(0));
-        metadata.put(Field.URL, urls);
+    /**
+     * Sets whether books parsed from the index pages should be kept in memory once they've been read,
+     * as books from the catalog always are, so later calls to {@link #books()} return the same
+     * instances, along with anything they've computed and cached. This is false by default.
+     */
+    public synchronized void setBooksRetained(boolean booksRetained) {
+        this.booksRetained = booksRetained;
+        if (!booksRetained && cachePath == null) {
+            books = null;
+            metadataIndex = null;
+        }
+    }
 
-        return new Book(metadata);
+    /**
+     * Gets an index of every book's metadata values, if the books are kept in memory. It's built the
+     * first time it's needed, and its book ordinals refer to the books returned by {@link #books()}.
+     */
+    public synchronized Optional<MetadataIndex> getMetadataIndex() {
+        if (metadataIndex == null && (cachePath != null || booksRetained)) {
+            metadataIndex = new MetadataIndex(retainedBooks());
+        }
+        return Optional.ofNullable(metadataIndex);
     }
 
-    private void addFileInfo(String tableRow, List<String> formats, List<String> paths) {
-        String stripped = stripTagsAndTrim(tableRow.replace("<td><a", "<td> <a"));
-        int i = stripped.lastIndexOf(' ');
-        formats.add(stripped.substring(0, i));
-        paths.add(dvdPath.resolve(stripped.substring(i + 2)).toString());
+    public Stream<Book> books() {
+        synchronized (this) {
+            if (cachePath != null || booksRetained) {
+                return retainedBooks().stream();
+            }
+        }
+        return parsedBooks();
     }
 
-    private static String stripTagsAndTrim(String input) {
-        return input.replaceAll("<[^>]*>", "");
+    private synchronized List<Book> retainedBooks() {
+        if (books == null) {
+            if (cachePath != null) {
+                books = catalogBooks();
+            } else {
+                try (Stream<Book> stream = parsedBooks()) {
+                    books = stream.collect(Collectors.toList());
+                }
+            }
+            for (int i = 0; i < books.size(); i++) {
+                books.get(i).setOrdinal(i);
+            }
+        }
+        return books;
     }
 
-    private static Stream<String> lines(final Path path, final Charset charset) {
+    private Stream<Book> parsedBooks() {
         try {
-            return Files.lines(path, charset);
+            return Files.list(indexPath).map(path -> {
+                try {
+                    return parser.get().parse(path);
+                } catch (IOException e) {
+                    throw Throwables.propagate(e);
+                }
+            });
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    /**
+     * Gets all books from the catalog, first (re)building it from the index pages if needed.
+     */
+    private List<Book> catalogBooks() {
+        final Path catalogFile = cachePath.resolve("catalog.bin");
+        try {
+            final long fingerprint = Catalog.fingerprint(indexPath);
+            final long start = Metrics.CATALOG_LOAD.start();
+            final Optional<List<Book>> books = Catalog.read(this, catalogFile, fingerprint);
+            Metrics.CATALOG_LOAD.stop(start);
+            if (books.isPresent()) {
+                return books.get();
+            }
+            final List<Book> parsed;
+            try (Stream<Book> stream = parsedBooks()) {
+                parsed = stream.collect(Collectors.toList());
+            }
+            try {
+                Catalog.write(catalogFile, fingerprint, parsed);
+            } catch (IOException e) {
+                System.err.println("Warning: Unable to write catalog " + catalogFile + ": " + e.getMessage());
+            }
+            return parsed;
         } catch (IOException e) {
             throw Throwables.propagate(e);
         }
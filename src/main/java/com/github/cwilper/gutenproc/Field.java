@@ -1,6 +1,10 @@
 package com.github.cwilper.gutenproc;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+
+import java.util.Locale;
+import java.util.Map;
 
 public enum Field
 {
@@ -61,15 +65,23 @@ public enum Field
     }
 
     protected String shortLabel() {
-        return label.replace(".", "").replace(" ", "-").toLowerCase();
+        return label.replace(".", "").replace(" ", "-").toLowerCase(Locale.ROOT);
     }
 
     public static Field forString(String string) {
+        final Field field = BY_NAME.get(string.toLowerCase(Locale.ROOT));
+        if (field == null) {
+            throw new IllegalArgumentException("Unrecognized field: " + string);
+        }
+        return field;
+    }
+
+    private static final Map<String, Field> BY_NAME = Maps.newHashMap();
+
+    static {
         for (Field field : values()) {
-            if (field.label().equalsIgnoreCase(string) || field.shortLabel().equalsIgnoreCase(string)) {
-                return field;
-            }
+            BY_NAME.put(field.label().toLowerCase(Locale.ROOT), field);
+            BY_NAME.put(field.shortLabel(), field);
         }
-        throw new IllegalArgumentException("Unrecognized field: " + string);
     }
 }
@@ -0,0 +1,63 @@
+package com.github.cwilper.gutenproc;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * The size and last modified time of a book's file, recorded along with anything derived from it
+ * and cached, so the cached data can be ignored once the file changes.
+ */
+final class FileStamp
+{
+    /**
+     * The stamp of a file that couldn't be read, which matches nothing.
+     */
+    static final FileStamp UNKNOWN = new FileStamp(-1, -1);
+
+    private final long size;
+
+    private final long modified;
+
+    private FileStamp(long size, long modified) {
+        this.size = size;
+        this.modified = modified;
+    }
+
+    static FileStamp of(Path path) {
+        try {
+            final BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            return new FileStamp(attrs.size(), attrs.lastModifiedTime().toMillis());
+        } catch (IOException e) {
+            return UNKNOWN;
+        }
+    }
+
+    static FileStamp read(DataInput in) throws IOException {
+        return new FileStamp(in.readLong(), in.readLong());
+    }
+
+    static FileStamp read(ByteBuffer buffer) {
+        return new FileStamp(buffer.getLong(), buffer.getLong());
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeLong(size);
+        out.writeLong(modified);
+    }
+
+    boolean isKnown() {
+        return size != -1;
+    }
+
+    /**
+     * Tells whether the given stamp is of the same, unchanged file.
+     */
+    boolean matches(FileStamp stamp) {
+        return isKnown() && size == stamp.size && modified == stamp.modified;
+    }
+}
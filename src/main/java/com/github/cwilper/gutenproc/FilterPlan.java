@@ -0,0 +1,156 @@
+package com.github.cwilper.gutenproc;
+
+import com.google.common.collect.Lists;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * A conjunction of filters that runs them in order of estimated cost and selectivity, so the cheap
+ * filters that rule out the most books go first, and expensive ones, like those that read text, only
+ * see the books that survive them.
+ *
+ * Each filter starts out with an estimated selectivity (the fraction of books it passes), which is
+ * replaced by the fraction it has actually passed once it has seen enough books. Match info is
+ * still captured in the order the filters were added, whatever order they run in.
+ */
+final class FilterPlan implements Predicate<Book>
+{
+    /**
+     * Relative cost of filtering on metadata that's already in memory.
+     */
+    static final double METADATA_COST = 1;
+
+    /**
+     * Relative cost of looking a book up in a bitmap from the text index.
+     */
+    static final double INDEX_COST = 2;
+
+    /**
+     * Relative cost of checking a book's file on disk, e.g. to see if facts computed from it are current.
+     */
+    static final double FILE_COST = 10;
+
+    /**
+     * Relative cost of scanning a book's raw text.
+     */
+    static final double TEXT_COST = 1000;
+
+    /**
+     * Relative cost of scanning a book's normalized text, which also has to be buffered.
+     */
+    static final double NORMALIZED_TEXT_COST = 1500;
+
+    private static final int MIN_SAMPLES = 64;
+
+    private static final int REPLAN_INTERVAL = 256;
+
+    private final Supplier<StringBuilder> matchInfo;
+
+    private final List<Filter> filters = Lists.newArrayList();
+
+    private final AtomicLong testCount = new AtomicLong();
+
+    private volatile Filter[] order = new Filter[0];
+
+    /**
+     * Creates an empty plan.
+     *
+     * @param matchInfo supplies the buffer filters add match info to for the current book,
+     *                  or null if match info isn't being captured.
+     */
+    FilterPlan(Supplier<StringBuilder> matchInfo) {
+        this.matchInfo = matchInfo;
+    }
+
+    /**
+     * Adds a filter with the given relative cost and estimated selectivity. The time it takes is
+     * measured by the "filter." + name timer.
+     */
+    void add(String name, Predicate<Book> predicate, double cost, double selectivity) {
+        filters.add(new Filter(filters.size(), Metrics.timer("filter." + name), predicate, cost, selectivity));
+        replan();
+    }
+
+    private void replan() {
+        final List<Filter> sorted = Lists.newArrayList(filters);
+        sorted.sort(Comparator.comparingDouble(Filter::rank));
+        order = sorted.toArray(new Filter[sorted.size()]);
+    }
+
+    @Override
+    public boolean test(Book book) {
+        if (testCount.incrementAndGet() % REPLAN_INTERVAL == 0) {
+            replan();
+        }
+        final Filter[] order = this.order;
+        if (matchInfo == null) {
+            for (Filter filter : order) {
+                if (!filter.test(book)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        // capture what each filter adds separately, then put it back together in the original order
+        final StringBuilder info = matchInfo.get();
+        final int start = info.length();
+        final String[] filterInfo = new String[order.length];
+        for (Filter filter : order) {
+            final boolean passed = filter.test(book);
+            filterInfo[filter.position] = info.substring(start);
+            info.setLength(start);
+            if (!passed) {
+                return false;
+            }
+        }
+        for (String string : filterInfo) {
+            info.append(string);
+        }
+        return true;
+    }
+
+    private static final class Filter
+    {
+        private final int position;
+        private final Metrics.Timer timer;
+        private final Predicate<Book> predicate;
+        private final double cost;
+        private final double estimatedSelectivity;
+        private final AtomicLong testCount = new AtomicLong();
+        private final AtomicLong passCount = new AtomicLong();
+
+        private Filter(int position, Metrics.Timer timer, Predicate<Book> predicate, double cost,
+                       double estimatedSelectivity) {
+            this.position = position;
+            this.timer = timer;
+            this.predicate = predicate;
+            this.cost = cost;
+            this.estimatedSelectivity = estimatedSelectivity;
+        }
+
+        private boolean test(Book book) {
+            testCount.incrementAndGet();
+            final long start = timer.start();
+            final boolean passed = predicate.test(book);
+            timer.stop(start);
+            if (passed) {
+                passCount.incrementAndGet();
+            }
+            return passed;
+        }
+
+        /**
+         * Gets the expected cost of this filter per book it rules out. Running filters in ascending
+         * order of rank minimizes the expected cost of the whole conjunction.
+         */
+        private double rank() {
+            final long tested = testCount.get();
+            final double selectivity = tested < MIN_SAMPLES ? estimatedSelectivity : (double) passCount.get() / tested;
+            return cost / Math.max(1 - selectivity, 1e-9);
+        }
+    }
+}
@@ -7,11 +7,37 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.HttpURLConnection;
+import java.net.URL;
 import java.util.Optional;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 public final class GutenProc
 {
+    /**
+     * Environment variable giving the URL of a server to forward commands to, e.g. http://localhost:8042
+     */
+    public static final String SERVER_ENV = "GUTENPROC_SERVER";
+
+    /**
+     * Header that requests to a server must have, which web pages can't send to it without its consent.
+     */
+    public static final String SERVER_REQUEST_HEADER = "X-Gutenproc-Request";
+
+    /**
+     * Starts the last line of every response from a server, which gives the command's exit status.
+     * A response without it was cut short.
+     */
+    public static final String SERVER_STATUS_PREFIX = "gutenproc-exit-status: ";
+
     private GutenProc() { }
 
     private static void die(String message) {
@@ -20,12 +46,22 @@ public final class GutenProc
     }
 
     private static void printHelpAndExit(String usage, String header, Options options, String footer) {
-        HelpFormatter helpFormatter = new HelpFormatter();
-        helpFormatter.setWidth(getTerminalWidth());
-        helpFormatter.printHelp(usage, "\n" + header + "\n\nOptions:", options, "\n" + footer);
+        PrintWriter writer = new PrintWriter(System.out);
+        printHelp(writer, getTerminalWidth(), usage, header, options, footer);
+        writer.flush();
         System.exit(0);
     }
 
+    /**
+     * Prints help in the standard format, wrapped to the given width.
+     */
+    public static void printHelp(PrintWriter writer, int width, String usage, String header, Options options,
+                                 String footer) {
+        HelpFormatter helpFormatter = new HelpFormatter();
+        helpFormatter.printHelp(writer, width, usage, "\n" + header + "\n\nOptions:", options,
+                helpFormatter.getLeftPadding(), helpFormatter.getDescPadding(), "\n" + footer);
+    }
+
     public static void main(String[] args) {
         if (args.length == 0) {
             die("Must specify a processor name");
@@ -37,6 +73,25 @@ public final class GutenProc
                 .desc("Path to the DVD (required). The PGDVD_PATH environment variable will be checked if this is unspecified.")
                 .hasArg()
                 .build());
+        options.addOption(Option.builder("cd")
+                .longOpt("cache-dir")
+                .desc("Directory where data derived from the DVD, such as the book catalog, is cached. Defaults to ~/.gutenproc")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("nc")
+                .longOpt("no-cache")
+                .desc("Don't read or write any cached data; parse everything from the DVD")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("metrics")
+                .desc("Print a summary of the time spent in each stage of processing, throughput, and bytes read"
+                        + " and written to stderr when done. These metrics can also be watched live over JMX")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("metrics-out")
+                .desc("Write the same metrics to the given file as JSON when done")
+                .hasArg()
+                .build());
         options.addOption("h", "help", false, "Shows help");
 
         if (args[0].equals("-h") || args[0].equals("--help")) {
@@ -52,6 +107,11 @@ public final class GutenProc
                     footer.toString());
         }
 
+        String server = System.getenv(SERVER_ENV);
+        if (server != null && server.trim().length() > 0 && !args[0].equalsIgnoreCase("serve")) {
+            System.exit(forward(server.trim(), args));
+        }
+
         Optional<Processor> oProcessor = Processor.forName(args[0]);
         if (!oProcessor.isPresent()) {
             die("No such processor: " + args[0]);
@@ -77,9 +137,13 @@ public final class GutenProc
                         die("Option d missing and PGDVD_PATH environment variable undefined");
                     }
                 } else {
-                    cmd.getOptionValue("d").get();
+                    dvdPath = cmd.getOptionValue("d").get();
+                }
+                File cacheDir = null;
+                if (!cmd.hasOption("nc")) {
+                    cacheDir = new File(cmd.getOptionValue("cd", System.getProperty("user.home") + "/.gutenproc"));
                 }
-                DVD dvd = new DVD(new File(dvdPath));
+                DVD dvd = new DVD(new File(dvdPath), cacheDir);
                 try {
                     processor.begin(cmd);
                 } catch (Exception e) {
@@ -90,10 +154,12 @@ public final class GutenProc
                         die("See above");
                     }
                 }
+                Metrics.start();
                 try {
                     processor.process(dvd, cmd);
                 } finally {
                     processor.end();
+                    reportMetrics(cmd);
                 }
             }
         } catch (ParseException e) {
@@ -106,6 +172,67 @@ public final class GutenProc
         }
     }
 
+    /**
+     * Runs a command on a server started with the serve processor, copying its output to stdout as it
+     * arrives, and returns the exit status given at the end of the response.
+     */
+    private static int forward(String server, String[] args) {
+        try {
+            HttpURLConnection connection = (HttpURLConnection) new URL(new URL(server), "/run").openConnection();
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "text/plain; charset=utf-8");
+            connection.setRequestProperty(SERVER_REQUEST_HEADER, "1");
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(String.join("\n", args).getBytes(UTF_8));
+            }
+            int status = connection.getResponseCode();
+            InputStream in = status == HttpURLConnection.HTTP_OK
+                    ? connection.getInputStream() : connection.getErrorStream();
+            if (in == null) {
+                System.out.println("Error: Server responded with status " + status);
+                return 1;
+            }
+            // each line is held back until the next arrives, since the last one is the exit status
+            String last = null;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (last != null) {
+                        System.out.println(last);
+                    }
+                    last = line;
+                }
+            }
+            if (last == null || !last.startsWith(SERVER_STATUS_PREFIX)) {
+                if (last != null) {
+                    System.out.println(last);
+                }
+                System.out.println("Error: Response from server ended early");
+                System.out.flush();
+                return 1;
+            }
+            System.out.flush();
+            return status == HttpURLConnection.HTTP_OK && last.equals(SERVER_STATUS_PREFIX + "0") ? 0 : 1;
+        } catch (IOException e) {
+            System.out.println("Error: Unable to run command on " + server + ": " + e.getMessage());
+            return 1;
+        }
+    }
+
+    private static void reportMetrics(Commandline cmd) {
+        if (cmd.hasOption("metrics")) {
+            System.err.print(Metrics.summary());
+        }
+        if (cmd.hasOption("metrics-out")) {
+            final File file = new File(cmd.getOptionValue("metrics-out").get());
+            try {
+                Metrics.write(file);
+            } catch (IOException e) {
+                System.err.println("Warning: Unable to write metrics to " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
     public static Optional<File> getFileCaseInsensitive(String path) {
         File origFile = new File(path);
         if (origFile.exists()) {
@@ -119,7 +246,7 @@ public final class GutenProc
         return Optional.empty();
     }
 
-    private static int getTerminalWidth() {
+    static int getTerminalWidth() {
         int reportedWidth = TerminalFactory.get().getWidth();
         if (reportedWidth < 50) {
             return 50;
@@ -0,0 +1,209 @@
+package com.github.cwilper.gutenproc;
+
+import com.google.common.collect.Lists;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Single-pass parser for the HTML index pages in the DVD's etext directory.
+ *
+ * Pages are decoded and tokenized straight from the file in one pass. Only lines beginning with
+ * {@code <th}, {@code <td}, or {@code <table><caption>} are buffered at all, and tags are stripped
+ * by scanning rather than with regular expressions. Buffers are reused from page to page, so
+ * instances are not thread-safe.
+ */
+final class IndexPageParser
+{
+    private static final String FILES_TABLE_START = "<table><caption>";
+
+    private final DVD dvd;
+
+    private final Path dvdPath;
+
+    private final CharsetDecoder decoder = UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private final ByteBuffer bytes = ByteBuffer.allocate(1 << 16);
+
+    private final CharBuffer chars = CharBuffer.allocate(1 << 16);
+
+    private final StringBuilder line = new StringBuilder(1024);
+
+    private final StringBuilder text = new StringBuilder(1024);
+
+    private boolean skippingLine;
+
+    private Map<Field, List<String>> metadata;
+
+    private List<String> formats;
+
+    private List<String> paths;
+
+    private Field field;
+
+    IndexPageParser(DVD dvd, Path dvdPath) {
+        this.dvd = dvd;
+        this.dvdPath = dvdPath;
+    }
+
+    Book parse(Path page) throws IOException {
+        final long start = Metrics.INDEX_PARSE.start();
+        metadata = new EnumMap<>(Field.class);
+        formats = Lists.newArrayList();
+        paths = Lists.newArrayList();
+        field = null;
+        line.setLength(0);
+        skippingLine = false;
+        decoder.reset();
+        bytes.clear();
+        try (InputStream in = Files.newInputStream(page)) {
+            boolean endOfInput = false;
+            boolean previousWasCR = false;
+            while (!endOfInput) {
+                final int n = in.read(bytes.array(), bytes.position(), bytes.remaining());
+                if (n == -1) {
+                    endOfInput = true;
+                } else {
+                    bytes.position(bytes.position() + n);
+                    Metrics.BYTES_READ.add(n);
+                }
+                bytes.flip();
+                chars.clear();
+                decoder.decode(bytes, chars, endOfInput);
+                if (endOfInput) {
+                    decoder.flush(chars);
+                }
+                bytes.compact();
+                chars.flip();
+                final char[] array = chars.array();
+                for (int i = 0; i < chars.limit(); i++) {
+                    final char c = array[i];
+                    if (c == '\n') {
+                        if (!previousWasCR) {
+                            endLine();
+                        }
+                        previousWasCR = false;
+                    } else if (c == '\r') {
+                        endLine();
+                        previousWasCR = true;
+                    } else {
+                        previousWasCR = false;
+                        if (!skippingLine) {
+                            line.append(c);
+                            if (line.length() == 3) {
+                                skippingLine = !(line.charAt(0) == '<' && line.charAt(1) == 't'
+                                        && (line.charAt(2) == 'h' || line.charAt(2) == 'd' || line.charAt(2) == 'a'));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        endLine();
+
+        // add formats and paths
+        if (!formats.isEmpty()) {
+            metadata.put(Field.FORMAT, formats);
+            metadata.put(Field.PATH, paths);
+        }
+
+        // add url
+        List<String> urls = Lists.newArrayList();
+        urls.add("https://www.gutenberg.org/ebooks/" + metadata.get(Field.ETEXT_NO).get(0));
+        metadata.put(Field.URL, urls);
+
+        Metrics.INDEX_PARSE.stop(start);
+        return new Book(dvd, metadata);
+    }
+
+    private void endLine() {
+        if (!skippingLine && line.length() >= 3) {
+            if (line.charAt(2) == 'h') {
+                stripTags(line, 0, false);
+                field = Field.forString(text.toString());
+            } else if (line.charAt(2) == 'd') {
+                stripTags(line, 0, false);
+                if (text.length() > 0) {
+                    List<String> values = metadata.get(field);
+                    if (values == null) {
+                        values = Lists.newArrayList();
+                        metadata.put(field, values);
+                    }
+                    values.add(text.toString());
+                }
+            } else if (startsWith(line, FILES_TABLE_START)) {
+                final int i = line.indexOf("</tr><tr>");
+                stripTags(line, i == -1 ? 4 : i + 5, true);
+                addFileInfo();
+            }
+        }
+        line.setLength(0);
+        skippingLine = false;
+    }
+
+    private void addFileInfo() {
+        int i = text.lastIndexOf(" ");
+        formats.add(text.substring(0, i));
+        paths.add(dvdPath.resolve(text.substring(i + 2)).toString());
+    }
+
+    /**
+     * Copies the input to the text buffer, starting at the given offset, without anything that
+     * looks like a tag. If spaceBeforeLinkCells is true, a space is inserted wherever a td tag
+     * is immediately followed by an a tag, so the link text is separated from what precedes it.
+     */
+    private void stripTags(CharSequence input, int offset, boolean spaceBeforeLinkCells) {
+        text.setLength(0);
+        final int length = input.length();
+        int i = offset;
+        while (i < length) {
+            final char c = input.charAt(i);
+            if (c == '<') {
+                int j = i + 1;
+                while (j < length && input.charAt(j) != '>') {
+                    j++;
+                }
+                if (j == length) {
+                    // unterminated; not a tag
+                    for (; i < length; i++) {
+                        text.append(input.charAt(i));
+                    }
+                    break;
+                }
+                if (spaceBeforeLinkCells && j == i + 3 && input.charAt(i + 1) == 't' && input.charAt(i + 2) == 'd'
+                        && j + 2 < length && input.charAt(j + 1) == '<' && input.charAt(j + 2) == 'a') {
+                    text.append(' ');
+                }
+                i = j + 1;
+            } else {
+                text.append(c);
+                i++;
+            }
+        }
+    }
+
+    private static boolean startsWith(CharSequence input, String prefix) {
+        if (input.length() < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (input.charAt(i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
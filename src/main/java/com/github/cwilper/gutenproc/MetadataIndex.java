@@ -0,0 +1,143 @@
+package com.github.cwilper.gutenproc;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * The metadata of every book, stored by field rather than by book. Each field's distinct values are
+ * kept once, in a dictionary, along with the sorted ordinals of the books that have each value.
+ *
+ * Metadata filters are run once per distinct value rather than once per book, and the books with
+ * matching values are combined into a BitSet that can be ANDed with the results of other filters.
+ * Counts of values among any set of books come from the same lists, without looking at the books.
+ */
+public final class MetadataIndex
+{
+    private final List<Book> books;
+
+    /**
+     * Columns indexed by field ordinal, each built the first time it's needed.
+     */
+    private final Column[] columns = new Column[Field.values().length];
+
+    /**
+     * Creates an index of the given books, which must have ordinals matching their positions.
+     */
+    MetadataIndex(List<Book> books) {
+        this.books = books;
+    }
+
+    private synchronized Column column(Field field) {
+        if (columns[field.ordinal()] == null) {
+            columns[field.ordinal()] = buildColumn(field);
+        }
+        return columns[field.ordinal()];
+    }
+
+    private Column buildColumn(Field field) {
+        // assign each distinct value an id, noting the id and book of every occurrence
+        final Map<String, Integer> ids = Maps.newHashMap();
+        final List<String> values = Lists.newArrayList();
+        int[] valueIds = new int[1024];
+        int[] bookOrdinals = new int[1024];
+        int size = 0;
+        for (int i = 0; i < books.size(); i++) {
+            final Optional<List<String>> bookValues = books.get(i).get(field);
+            if (bookValues.isPresent()) {
+                for (String value : bookValues.get()) {
+                    Integer id = ids.get(value);
+                    if (id == null) {
+                        id = values.size();
+                        ids.put(value, id);
+                        values.add(value);
+                    }
+                    if (size == valueIds.length) {
+                        valueIds = Arrays.copyOf(valueIds, size * 2);
+                        bookOrdinals = Arrays.copyOf(bookOrdinals, size * 2);
+                    }
+                    valueIds[size] = id;
+                    bookOrdinals[size++] = i;
+                }
+            }
+        }
+        // then group the books by value, keeping them in order
+        final int[] counts = new int[values.size()];
+        for (int i = 0; i < size; i++) {
+            counts[valueIds[i]]++;
+        }
+        final int[][] ordinals = new int[values.size()][];
+        for (int id = 0; id < ordinals.length; id++) {
+            ordinals[id] = new int[counts[id]];
+            counts[id] = 0;
+        }
+        for (int i = 0; i < size; i++) {
+            final int id = valueIds[i];
+            ordinals[id][counts[id]++] = bookOrdinals[i];
+        }
+        return new Column(values.toArray(new String[values.size()]), ordinals);
+    }
+
+    public int getBookCount() {
+        return books.size();
+    }
+
+    /**
+     * Gets the ordinals of books with at least one value of the given field that matches.
+     */
+    public BitSet matches(Field field, StringMatcher matcher) {
+        final BitSet matches = new BitSet(books.size());
+        final Column column = column(field);
+        for (int id = 0; id < column.values.length; id++) {
+            if (matcher.matches(column.values[id])) {
+                for (int ordinal : column.ordinals[id]) {
+                    matches.set(ordinal);
+                }
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Passes each value of the given field that occurs among the given books to the consumer, along
+     * with the number of times it occurs. A book with the same value more than once counts for each.
+     */
+    public void count(Field field, BitSet books, ObjIntConsumer<String> consumer) {
+        final Column column = column(field);
+        for (int id = 0; id < column.values.length; id++) {
+            int count = 0;
+            for (int ordinal : column.ordinals[id]) {
+                if (books.get(ordinal)) {
+                    count++;
+                }
+            }
+            if (count > 0) {
+                consumer.accept(column.values[id], count);
+            }
+        }
+    }
+
+    private static final class Column
+    {
+        /**
+         * Distinct values, indexed by id.
+         */
+        private final String[] values;
+
+        /**
+         * For each value id, the ordinals of the books having that value, in ascending order.
+         */
+        private final int[][] ordinals;
+
+        private Column(String[] values, int[][] ordinals) {
+            this.values = values;
+            this.ordinals = ordinals;
+        }
+    }
+}
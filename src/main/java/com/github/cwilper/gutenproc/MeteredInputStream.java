@@ -0,0 +1,77 @@
+package com.github.cwilper.gutenproc;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An input stream that counts the bytes read from another, and adds the time spent opening and
+ * reading it to a timer once it's closed.
+ */
+final class MeteredInputStream extends FilterInputStream
+{
+    private final Metrics.Timer timer;
+
+    private final Metrics.Counter counter;
+
+    private long nanos;
+
+    private boolean closed;
+
+    /**
+     * Creates an instance.
+     *
+     * @param start when opening the stream began, as given by {@link Metrics.Timer#start()}.
+     */
+    MeteredInputStream(InputStream in, long start, Metrics.Timer timer, Metrics.Counter counter) {
+        super(in);
+        this.timer = timer;
+        this.counter = counter;
+        this.nanos = System.nanoTime() - start;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final long start = System.nanoTime();
+        final int b = in.read();
+        nanos += System.nanoTime() - start;
+        if (b != -1) {
+            counter.increment();
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        final long start = System.nanoTime();
+        final int n = in.read(b, off, len);
+        nanos += System.nanoTime() - start;
+        if (n > 0) {
+            counter.add(n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        final long start = System.nanoTime();
+        final long skipped = in.skip(n);
+        nanos += System.nanoTime() - start;
+        counter.add(skipped);
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        final long start = System.nanoTime();
+        try {
+            in.close();
+        } finally {
+            timer.add(nanos + System.nanoTime() - start);
+        }
+    }
+}
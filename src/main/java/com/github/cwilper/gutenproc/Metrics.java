@@ -0,0 +1,333 @@
+package com.github.cwilper.gutenproc;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Process-wide timers and counters for each stage of processing. They're cheap to update from any
+ * number of threads, can be watched live over JMX while a run is in progress, and are summarized at
+ * the end of a run with --metrics or written to a file with --metrics-out.
+ *
+ * Timers measure the time spent in a stage itself. Where a stage passes lines on to the next one as
+ * it goes, as when text is read and normalized, the time spent downstream isn't included.
+ */
+public final class Metrics
+{
+    public static final String OBJECT_NAME = "com.github.cwilper.gutenproc:type=Metrics";
+
+    private static final Map<String, Object> METRICS = Maps.newLinkedHashMap();
+
+    private static volatile long startNanos = System.nanoTime();
+
+    public static final Counter BOOKS_SCANNED = counter("books.scanned");
+
+    public static final Counter BOOKS_MATCHED = counter("books.matched");
+
+    /**
+     * Bytes read from the DVD, counting the compressed size of zip entries.
+     */
+    public static final Counter BYTES_READ = counter("bytes.read");
+
+    public static final Counter BYTES_INFLATED = counter("bytes.inflated");
+
+    public static final Counter BYTES_WRITTEN = counter("bytes.written");
+
+    public static final Timer INDEX_PARSE = timer("index.parse");
+
+    public static final Timer CATALOG_LOAD = timer("catalog.load");
+
+    /**
+     * Opening text files, and reading those that aren't zipped.
+     */
+    public static final Timer TEXT_LOAD = timer("text.load");
+
+    /**
+     * Reading and inflating zipped text.
+     */
+    public static final Timer TEXT_INFLATE = timer("text.inflate");
+
+    public static final Timer NORMALIZE = timer("text.normalize");
+
+    public static final Timer PDF_RENDER = timer("pdf.render");
+
+    public static final Timer PROCESS = timer("process.test");
+
+    private Metrics() { }
+
+    /**
+     * Gets the timer with the given name, creating it if needed.
+     */
+    public static Timer timer(String name) {
+        synchronized (METRICS) {
+            return (Timer) METRICS.computeIfAbsent(name, Timer::new);
+        }
+    }
+
+    /**
+     * Gets the counter with the given name, creating it if needed.
+     */
+    public static Counter counter(String name) {
+        synchronized (METRICS) {
+            return (Counter) METRICS.computeIfAbsent(name, Counter::new);
+        }
+    }
+
+    /**
+     * Marks the start of the run, which throughput is measured from, and makes the metrics
+     * available over JMX.
+     */
+    static void start() {
+        startNanos = System.nanoTime();
+        try {
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new MBean(), name);
+            }
+        } catch (JMException e) {
+            System.err.println("Warning: Unable to register metrics with JMX: " + e.getMessage());
+        }
+    }
+
+    private static List<Object> all() {
+        synchronized (METRICS) {
+            return Lists.newArrayList(METRICS.values());
+        }
+    }
+
+    private static long elapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    private static double booksPerSecond() {
+        return BOOKS_SCANNED.get() * 1000.0 / Math.max(elapsedMillis(), 1);
+    }
+
+    /**
+     * Gets a human-readable summary of all metrics with any activity.
+     */
+    static String summary() {
+        final StringBuilder summary = new StringBuilder(String.format("Metrics after %.1fs (%.1f books/sec):%n",
+                elapsedMillis() / 1000.0, booksPerSecond()));
+        for (Object metric : all()) {
+            if (metric instanceof Timer) {
+                final Timer timer = (Timer) metric;
+                if (timer.getCount() > 0) {
+                    summary.append(String.format("  %-28s %,12d ms %,12d calls %,12.1f us/call%n", timer.name,
+                            timer.getMillis(), timer.getCount(), timer.getNanos() / 1000.0 / timer.getCount()));
+                }
+            } else {
+                final Counter counter = (Counter) metric;
+                if (counter.get() > 0) {
+                    summary.append(String.format("  %-28s %,12d%n", counter.name, counter.get()));
+                }
+            }
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Writes all metrics to the given file as a JSON object.
+     */
+    static void write(File file) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file.toPath(), UTF_8))) {
+            out.println("{");
+            out.println("  \"elapsedMillis\": " + elapsedMillis() + ",");
+            out.println(String.format(Locale.ROOT, "  \"booksPerSecond\": %.3f,", booksPerSecond()));
+            final List<Object> all = all();
+            out.println("  \"timers\": {");
+            String separator = "";
+            for (Object metric : all) {
+                if (metric instanceof Timer) {
+                    final Timer timer = (Timer) metric;
+                    out.print(separator + "    \"" + timer.name + "\": { \"count\": " + timer.getCount()
+                            + ", \"nanos\": " + timer.getNanos() + " }");
+                    separator = ",\n";
+                }
+            }
+            out.println();
+            out.println("  },");
+            out.println("  \"counters\": {");
+            separator = "";
+            for (Object metric : all) {
+                if (metric instanceof Counter) {
+                    final Counter counter = (Counter) metric;
+                    out.print(separator + "    \"" + counter.name + "\": " + counter.get());
+                    separator = ",\n";
+                }
+            }
+            out.println();
+            out.println("  }");
+            out.println("}");
+        }
+    }
+
+    /**
+     * Accumulates the number of times a stage ran and the total time it took.
+     */
+    public static final class Timer
+    {
+        private final String name;
+
+        private final LongAdder count = new LongAdder();
+
+        private final LongAdder nanos = new LongAdder();
+
+        private Timer(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Gets the time to later pass to {@link #stop(long)}.
+         */
+        public long start() {
+            return System.nanoTime();
+        }
+
+        public void stop(long start) {
+            add(System.nanoTime() - start);
+        }
+
+        public void add(long nanos) {
+            count.increment();
+            this.nanos.add(nanos);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getNanos() {
+            return nanos.sum();
+        }
+
+        public long getMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(getNanos());
+        }
+    }
+
+    public static final class Counter
+    {
+        private final String name;
+
+        private final LongAdder value = new LongAdder();
+
+        private Counter(String name) {
+            this.name = name;
+        }
+
+        public void increment() {
+            value.increment();
+        }
+
+        public void add(long n) {
+            value.add(n);
+        }
+
+        public long get() {
+            return value.sum();
+        }
+    }
+
+    /**
+     * Exposes each timer as a count and a number of milliseconds, and each counter as a number, along
+     * with the elapsed time and throughput. Metrics created during the run appear as they're created.
+     */
+    private static final class MBean implements DynamicMBean
+    {
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            if (attribute.equals("elapsedMillis")) {
+                return elapsedMillis();
+            } else if (attribute.equals("booksPerSecond")) {
+                return booksPerSecond();
+            }
+            for (Object metric : all()) {
+                if (metric instanceof Timer) {
+                    final Timer timer = (Timer) metric;
+                    if (attribute.equals(timer.name + ".count")) {
+                        return timer.getCount();
+                    } else if (attribute.equals(timer.name + ".millis")) {
+                        return timer.getMillis();
+                    }
+                } else if (attribute.equals(((Counter) metric).name)) {
+                    return ((Counter) metric).get();
+                }
+            }
+            throw new AttributeNotFoundException(attribute);
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException(attribute.getName() + " is read-only");
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            final AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                try {
+                    list.add(new Attribute(attribute, getAttribute(attribute)));
+                } catch (AttributeNotFoundException e) {
+                    // omitted, as the interface allows
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException(actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            final List<MBeanAttributeInfo> attributes = Lists.newArrayList();
+            attributes.add(attribute("elapsedMillis", "long", "Time since the run started"));
+            attributes.add(attribute("booksPerSecond", "double", "Books scanned per second"));
+            for (Object metric : all()) {
+                if (metric instanceof Timer) {
+                    final String name = ((Timer) metric).name;
+                    attributes.add(attribute(name + ".count", "long", "Number of times " + name + " ran"));
+                    attributes.add(attribute(name + ".millis", "long", "Total time spent in " + name));
+                } else {
+                    final String name = ((Counter) metric).name;
+                    attributes.add(attribute(name, "long", "Total " + name));
+                }
+            }
+            return new MBeanInfo(Metrics.class.getName(), "gutenproc processing metrics",
+                    attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null,
+                    new MBeanOperationInfo[0], null);
+        }
+
+        private static MBeanAttributeInfo attribute(String name, String type, String description) {
+            return new MBeanAttributeInfo(name, type, description, true, false, false);
+        }
+    }
+}
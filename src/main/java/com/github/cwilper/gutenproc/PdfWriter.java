@@ -0,0 +1,240 @@
+package com.github.cwilper.gutenproc;
+
+import com.google.common.primitives.Longs;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * Writes lines of plain text to a PDF in 11pt Courier on letter-sized pages, one page at a time.
+ *
+ * Each page's content stream is compressed and written out as soon as the page is full, so only
+ * the current page is ever held in memory, along with the offset of each object written so far.
+ * All pages share a single font object, and fixed parts of the document are encoded once per JVM.
+ * Text is encoded as WinAnsi, with unmappable characters replaced by '?'.
+ *
+ * Instances are not thread-safe, but any number may be used concurrently.
+ */
+final class PdfWriter implements Closeable
+{
+    private static final int LINES_PER_PAGE = 51;
+
+    private static final Charset WIN_ANSI = Charset.forName("windows-1252");
+
+    private static final byte[] HEADER = bytes("%PDF-1.4\n%âãÏÓ\n");
+
+    private static final byte[] FONT = bytes(
+            "<< /Type /Font /Subtype /Type1 /BaseFont /Courier /Encoding /WinAnsiEncoding >>");
+
+    private static final byte[] PAGE_START = bytes("BT\n/F1 11 Tf\n65 735 Td\n");
+
+    private static final byte[] PAGE_END = bytes("ET\n");
+
+    private static final byte[] LINE_START = bytes("0 -13 Td\n(");
+
+    private static final byte[] LINE_END = bytes(") Tj\n");
+
+    // Object numbers reserved for the objects every document has
+    private static final int CATALOG = 1;
+    private static final int PAGES = 2;
+    private static final int FONT_OBJECT = 3;
+    private static final int FIRST_PAGE_OBJECT = 4;
+
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(Deflater::new);
+
+    private final CountingOutputStream out;
+
+    private final CharsetEncoder encoder = WIN_ANSI.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE)
+            .replaceWith(new byte[] { '?' });
+
+    private final ByteArrayOutputStream page = new ByteArrayOutputStream(8192);
+
+    private final ByteArrayOutputStream compressedPage = new ByteArrayOutputStream(4096);
+
+    private ByteBuffer encoded = ByteBuffer.allocate(256);
+
+    private long[] offsets = new long[64];
+
+    private int objectCount = FONT_OBJECT;
+
+    private int pageCount;
+
+    private int linesOnPage;
+
+    PdfWriter(OutputStream out) throws IOException {
+        this.out = new CountingOutputStream(new BufferedOutputStream(out, 1 << 16));
+        this.out.write(HEADER);
+        offsets[FONT_OBJECT] = this.out.count;
+        writeObject(FONT_OBJECT, FONT);
+    }
+
+    void addLine(String line) throws IOException {
+        if (linesOnPage == 0) {
+            page.write(PAGE_START);
+        }
+        page.write(LINE_START);
+        encode(line);
+        for (int i = 0; i < encoded.limit(); i++) {
+            final byte b = encoded.get(i);
+            if (b == '(' || b == ')' || b == '\\') {
+                page.write('\\');
+            }
+            page.write(b);
+        }
+        page.write(LINE_END);
+        if (++linesOnPage == LINES_PER_PAGE) {
+            endPage();
+        }
+    }
+
+    private void encode(String line) {
+        final CharBuffer chars = CharBuffer.wrap(line);
+        encoder.reset();
+        encoded.clear();
+        while (encoder.encode(chars, encoded, true).isOverflow()) {
+            encoded = grow(encoded);
+        }
+        while (encoder.flush(encoded).isOverflow()) {
+            encoded = grow(encoded);
+        }
+        encoded.flip();
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer) {
+        final ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+
+    /**
+     * Writes the current page's content stream and page object.
+     */
+    private void endPage() throws IOException {
+        page.write(PAGE_END);
+        final Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        compressedPage.reset();
+        try (DeflaterOutputStream deflated = new DeflaterOutputStream(compressedPage, deflater, 4096)) {
+            page.writeTo(deflated);
+        }
+        page.reset();
+        linesOnPage = 0;
+
+        final int contents = newObject();
+        out.write(bytes(contents + " 0 obj\n<< /Length " + compressedPage.size() + " /Filter /FlateDecode >>\nstream\n"));
+        compressedPage.writeTo(out);
+        out.write(bytes("\nendstream\nendobj\n"));
+
+        final int pageObject = newObject();
+        writeObject(pageObject, bytes("<< /Type /Page /Parent " + PAGES + " 0 R /Contents " + contents
+                + " 0 R /Resources << /Font << /F1 " + FONT_OBJECT + " 0 R >> >> >>"));
+        pageCount++;
+    }
+
+    /**
+     * Allocates the next object number, recording the current offset as its location.
+     */
+    private int newObject() {
+        final int number = ++objectCount;
+        if (number == offsets.length) {
+            offsets = Longs.ensureCapacity(offsets, number + 1, number);
+        }
+        offsets[number] = out.count;
+        return number;
+    }
+
+    private void writeObject(int number, byte[] dictionary) throws IOException {
+        out.write(bytes(number + " 0 obj\n"));
+        out.write(dictionary);
+        out.write(bytes("\nendobj\n"));
+    }
+
+    /**
+     * Finishes the document, writing the page tree, catalog, and cross-reference table,
+     * and closes the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (linesOnPage > 0) {
+                endPage();
+            }
+            // pages are always written as a content stream followed by a page object
+            final StringBuilder kids = new StringBuilder();
+            for (int i = 0; i < pageCount; i++) {
+                kids.append(FIRST_PAGE_OBJECT + i * 2 + 1).append(" 0 R ");
+            }
+            offsets[PAGES] = out.count;
+            writeObject(PAGES, bytes("<< /Type /Pages /Kids [ " + kids + "] /Count " + pageCount
+                    + " /MediaBox [ 0 0 612 792 ] >>"));
+            offsets[CATALOG] = out.count;
+            writeObject(CATALOG, bytes("<< /Type /Catalog /Pages " + PAGES + " 0 R >>"));
+
+            final long xref = out.count;
+            final StringBuilder table = new StringBuilder();
+            table.append("xref\n0 ").append(objectCount + 1).append("\n0000000000 65535 f \n");
+            for (int i = 1; i <= objectCount; i++) {
+                table.append(String.format(Locale.ROOT, "%010d 00000 n \n", offsets[i]));
+            }
+            table.append("trailer\n<< /Size ").append(objectCount + 1).append(" /Root ").append(CATALOG)
+                    .append(" 0 R >>\nstartxref\n").append(xref).append("\n%%EOF\n");
+            out.write(bytes(table.toString()));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Encodes PDF syntax, which is ASCII apart from the binary comment in the header.
+     */
+    private static byte[] bytes(String string) {
+        return string.getBytes(string.chars().allMatch(c -> c < 128) ? US_ASCII : WIN_ANSI);
+    }
+
+    /**
+     * Keeps track of the number of bytes written, so objects can be located for the xref table.
+     */
+    private static final class CountingOutputStream extends OutputStream
+    {
+        private final OutputStream out;
+
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
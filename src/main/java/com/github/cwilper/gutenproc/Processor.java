@@ -5,6 +5,10 @@ import com.google.common.collect.Lists;
 import com.google.common.reflect.ClassPath;
 import org.apache.commons.cli.Options;
 
+import java.io.File;
+import java.io.PrintStream;
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.util.List;
 import java.util.Optional;
 import java.util.Set;
@@ -31,6 +35,28 @@ public interface Processor
      */
     void addOptions(Options options);
 
+    /**
+     * Sets the stream that results are printed to. This is System.out by default.
+     */
+    void setOut(PrintStream out);
+
+    /**
+     * Tells whether this processor rebuilds data that's cached for the DVD, such as the text index.
+     * Such processors can't run while the DVD is shared with other processors, as it is in server mode.
+     */
+    default boolean rebuildsCachedData() {
+        return false;
+    }
+
+    /**
+     * Tells whether this processor, with the given options, writes files other than cached data.
+     * Such processors can't run in server mode, since requests can't be trusted to choose where
+     * files go on the server.
+     */
+    default boolean writesFiles(Commandline cmd) {
+        return false;
+    }
+
     /**
      * Prepares this processor, throwing an exception with an informative message
      * for the user if a failure occurs.
@@ -57,13 +83,22 @@ public interface Processor
         List<Processor> list = Lists.newArrayList();
         try {
             String basePackage = Processor.class.getPackage().getName();
-            Set<ClassPath.ClassInfo> infos = ClassPath.from(
-                    Processor.class.getClassLoader()).getTopLevelClassesRecursive(
-                    basePackage);
+            ClassLoader loader = Processor.class.getClassLoader();
+            Set<ClassPath.ClassInfo> infos = ClassPath.from(loader).getTopLevelClassesRecursive(basePackage);
+            if (infos.isEmpty()) {
+                // after Java 8 the application class loader isn't a URLClassLoader, so scan the class path itself
+                List<URL> urls = Lists.newArrayList();
+                for (String path : System.getProperty("java.class.path").split(File.pathSeparator)) {
+                    urls.add(new File(path).toURI().toURL());
+                }
+                try (URLClassLoader classPath = new URLClassLoader(urls.toArray(new URL[urls.size()]), null)) {
+                    infos = ClassPath.from(classPath).getTopLevelClassesRecursive(basePackage);
+                }
+            }
             for (ClassPath.ClassInfo info : infos) {
                 String n = info.getName();
                 if (n.endsWith("Processor") && n.substring(basePackage.length() + 1).contains(".")) {
-                    list.add((Processor) info.load().newInstance());
+                    list.add((Processor) Class.forName(n, true, loader).getDeclaredConstructor().newInstance());
                 }
             }
         } catch (Exception e) {
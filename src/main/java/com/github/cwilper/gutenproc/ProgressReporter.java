@@ -0,0 +1,169 @@
+package com.github.cwilper.gutenproc;
+
+import com.google.common.base.Strings;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Shows how far a run has got on a single line of stderr, redrawn a couple of times a second: books
+ * scanned out of the total, books and bytes read per second, and the estimated time remaining.
+ * With a limit, the books processed so far are shown too, and the run is expected to end at
+ * whichever comes first: the end of the DVD, or the limit.
+ *
+ * Progress is sampled from the shared {@link Metrics} counters on a background thread, so it's
+ * right however many threads are scanning, and costs the scanning threads nothing. Rates are
+ * averaged over the last several seconds, so they follow changes in throughput as the run goes on.
+ * Without a console, a plain line is printed every ten seconds instead.
+ */
+final class ProgressReporter implements AutoCloseable
+{
+    private static final long REDRAW_MILLIS = 500;
+
+    private static final long LOG_MILLIS = 10000;
+
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final int total;
+
+    private final long limit;
+
+    private final LongSupplier processed;
+
+    private final PrintStream out;
+
+    private final boolean terminal;
+
+    private final int width;
+
+    private final long startNanos = System.nanoTime();
+
+    private final long startScanned = Metrics.BOOKS_SCANNED.get();
+
+    private final long startBytes = Metrics.BYTES_READ.get();
+
+    /**
+     * Recent samples of { time, books scanned, bytes read, books processed }, oldest first.
+     */
+    private final Deque<long[]> samples = new ArrayDeque<>();
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "progress");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private ProgressReporter(int total, long limit, LongSupplier processed, PrintStream out, boolean terminal) {
+        this.total = total;
+        this.limit = limit;
+        this.processed = processed;
+        this.out = out;
+        this.terminal = terminal;
+        this.width = terminal ? GutenProc.getTerminalWidth() - 1 : 0;
+    }
+
+    /**
+     * Starts reporting progress toward the given total number of books, or the given limit on the
+     * number processed, if it's reached first.
+     *
+     * @param limit the limit, or Long.MAX_VALUE if there is none.
+     * @param processed gets the number of books processed so far.
+     */
+    static ProgressReporter start(int total, long limit, LongSupplier processed) {
+        final ProgressReporter reporter = new ProgressReporter(total, limit, processed, System.err,
+                System.console() != null);
+        reporter.sample();
+        final long period = reporter.terminal ? REDRAW_MILLIS : LOG_MILLIS;
+        reporter.timer.scheduleAtFixedRate(reporter::report, period, period, TimeUnit.MILLISECONDS);
+        return reporter;
+    }
+
+    /**
+     * Stops reporting, leaving a final line showing the overall totals and rates.
+     */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+        try {
+            timer.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        final long elapsed = System.nanoTime() - startNanos;
+        final long scanned = Metrics.BOOKS_SCANNED.get() - startScanned;
+        final long bytes = Metrics.BYTES_READ.get() - startBytes;
+        final StringBuilder line = new StringBuilder(String.format("Scanned %,d of %,d books", scanned, total));
+        if (limit != Long.MAX_VALUE) {
+            line.append(String.format(" (processed %,d of %,d)", processed.getAsLong(), limit));
+        }
+        print(line.append(" in ").append(duration(elapsed)).append(", ").append(rates(scanned, bytes, elapsed))
+                .toString());
+        if (terminal) {
+            out.println();
+        }
+    }
+
+    private synchronized long[] sample() {
+        final long[] sample = { System.nanoTime(), Metrics.BOOKS_SCANNED.get() - startScanned,
+                Metrics.BYTES_READ.get() - startBytes, processed.getAsLong() };
+        samples.addLast(sample);
+        while (samples.size() > 2 && sample[0] - samples.peekFirst()[0] > WINDOW_NANOS) {
+            samples.removeFirst();
+        }
+        return sample;
+    }
+
+    private synchronized void report() {
+        final long[] latest = sample();
+        final long[] oldest = samples.peekFirst();
+        final long elapsed = latest[0] - oldest[0];
+        final long scanned = latest[1] - oldest[1];
+        final StringBuilder line = new StringBuilder(String.format("Scanned %,d of %,d books", latest[1], total));
+        if (total > 0) {
+            line.append(String.format(" (%.1f%%)", Math.min(latest[1] * 100.0 / total, 100)));
+        }
+        if (limit != Long.MAX_VALUE) {
+            line.append(String.format(", processed %,d of %,d", latest[3], limit));
+        }
+        if (elapsed > 0) {
+            line.append(", ").append(rates(scanned, latest[2] - oldest[2], elapsed));
+            long remaining = Long.MAX_VALUE;
+            if (scanned > 0 && total > latest[1]) {
+                remaining = (long) ((double) (total - latest[1]) * elapsed / scanned);
+            }
+            final long processedInWindow = latest[3] - oldest[3];
+            if (processedInWindow > 0 && limit > latest[3]) {
+                remaining = Math.min(remaining, (long) ((double) (limit - latest[3]) * elapsed / processedInWindow));
+            }
+            if (remaining != Long.MAX_VALUE) {
+                line.append(", ETA ").append(duration(remaining));
+            }
+        }
+        print(line.toString());
+    }
+
+    private void print(String line) {
+        if (terminal) {
+            // pad to overwrite whatever was there before, without wrapping to the next line
+            out.print("\r" + Strings.padEnd(line.length() > width ? line.substring(0, width) : line, width, ' '));
+            out.flush();
+        } else {
+            out.println(line);
+        }
+    }
+
+    private static String rates(long books, long bytes, long nanos) {
+        final double seconds = Math.max(nanos, 1) / 1e9;
+        return String.format("%.1f books/sec, %.1f MB/sec", books / seconds, bytes / seconds / (1 << 20));
+    }
+
+    private static String duration(long nanos) {
+        final long seconds = TimeUnit.NANOSECONDS.toSeconds(nanos);
+        return String.format("%d:%02d:%02d", seconds / 3600, seconds / 60 % 60, seconds % 60);
+    }
+}
@@ -0,0 +1,119 @@
+package com.github.cwilper.gutenproc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.MalformedInputException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reads lines of text in single-byte charsets like US-ASCII, ISO-8859-1, and windows-1252 by
+ * looking each byte up in a 256-entry table, rather than going through a CharsetDecoder.
+ *
+ * Lines are split exactly as {@link java.io.BufferedReader#readLine()} splits them: at "\n", "\r",
+ * or "\r\n", with a final unterminated line included only if it's not empty.
+ */
+final class SingleByteLineReader
+{
+    /**
+     * Marks bytes that aren't valid in the charset.
+     */
+    private static final char INVALID = '\uFFFF';
+
+    private static final Map<Charset, Optional<char[]>> TABLES = new ConcurrentHashMap<>();
+
+    private SingleByteLineReader() { }
+
+    /**
+     * Gets the decoding table for the given charset, if it's a single-byte charset that encodes
+     * line terminators as ASCII does.
+     */
+    static Optional<char[]> table(Charset charset) {
+        return TABLES.computeIfAbsent(charset, SingleByteLineReader::buildTable);
+    }
+
+    private static Optional<char[]> buildTable(Charset charset) {
+        final CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        // UTF-8 decodes at most one char per byte too, but encodes some chars as several bytes
+        if (decoder.maxCharsPerByte() != 1 || !charset.canEncode() || charset.newEncoder().maxBytesPerChar() != 1) {
+            return Optional.empty();
+        }
+        final char[] table = new char[256];
+        final CharBuffer chars = CharBuffer.allocate(2);
+        for (int b = 0; b < 256; b++) {
+            decoder.reset();
+            chars.clear();
+            final ByteBuffer bytes = ByteBuffer.wrap(new byte[] { (byte) b });
+            if (decoder.decode(bytes, chars, true).isError() || decoder.flush(chars).isError()
+                    || bytes.hasRemaining()) {
+                table[b] = INVALID;
+                continue;
+            }
+            chars.flip();
+            if (chars.remaining() != 1 || chars.get(0) == INVALID) {
+                return Optional.empty(); // stateful or multi-byte after all
+            }
+            table[b] = chars.get(0);
+        }
+        if (table['\n'] != '\n' || table['\r'] != '\r') {
+            return Optional.empty();
+        }
+        return Optional.of(table);
+    }
+
+    /**
+     * Reads lines from the stream, passing them to the visitor until it returns false.
+     *
+     * @param strict if true, a byte that isn't valid in the charset causes a MalformedInputException.
+     *               Otherwise, it's replaced with U+FFFD, as an InputStreamReader would do.
+     */
+    static void scan(InputStream in, char[] table, boolean strict, Book.LineVisitor visitor) throws IOException {
+        final byte[] bytes = new byte[1 << 16];
+        char[] line = new char[256];
+        int length = 0;
+        int lineNum = 0;
+        boolean skipLF = false;
+        int n;
+        while ((n = in.read(bytes)) != -1) {
+            for (int i = 0; i < n; i++) {
+                final int b = bytes[i] & 0xFF;
+                if (b == '\n' || b == '\r') {
+                    if (b == '\n' && skipLF) {
+                        skipLF = false;
+                        continue;
+                    }
+                    skipLF = b == '\r';
+                    if (!visitor.visit(++lineNum, new String(line, 0, length))) {
+                        return;
+                    }
+                    length = 0;
+                    continue;
+                }
+                skipLF = false;
+                char c = table[b];
+                if (c == INVALID) {
+                    if (strict) {
+                        throw new MalformedInputException(1);
+                    }
+                    c = '\uFFFD';
+                }
+                if (length == line.length) {
+                    line = Arrays.copyOf(line, length * 2);
+                }
+                line[length++] = c;
+            }
+        }
+        if (length > 0) {
+            visitor.visit(++lineNum, new String(line, 0, length));
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.github.cwilper.gutenproc;
+
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Matches strings against a filter value given on the command line. Values of the form s/regex/
+ * must match the regular expression in full; anything else is a case insensitive substring match.
+ *
+ * Instances are compiled once and are safe to share between threads.
+ */
+public abstract class StringMatcher
+{
+    /**
+     * Escapes that match one character (or none) and take no arguments.
+     */
+    private static final String SIMPLE_ESCAPES = "dDsSwWbBAGZzhHvVR";
+
+    public static StringMatcher forString(String substringOrRegex) {
+        if (substringOrRegex.startsWith("s/") && substringOrRegex.endsWith("/")) {
+            return new RegexMatcher(substringOrRegex.substring(2, substringOrRegex.length() - 1));
+        }
+        return new SubstringMatcher(substringOrRegex);
+    }
+
+    public abstract boolean isRegex();
+
+    public abstract boolean matches(String value);
+
+    /**
+     * Gets a lowercase string that every matching value is guaranteed to contain, ignoring case,
+     * if there is one.
+     */
+    public abstract Optional<String> getRequiredSubstring();
+
+    private static final class SubstringMatcher extends StringMatcher
+    {
+        private final String lcSubstring;
+
+        private SubstringMatcher(String substring) {
+            this.lcSubstring = substring.toLowerCase();
+        }
+
+        @Override
+        public boolean isRegex() {
+            return false;
+        }
+
+        @Override
+        public boolean matches(String value) {
+            return value.toLowerCase().contains(lcSubstring);
+        }
+
+        @Override
+        public Optional<String> getRequiredSubstring() {
+            return Optional.of(lcSubstring);
+        }
+    }
+
+    private static final class RegexMatcher extends StringMatcher
+    {
+        private final String requiredSubstring;
+
+        private final ThreadLocal<Matcher> matcher;
+
+        private RegexMatcher(String regex) {
+            final Pattern pattern = Pattern.compile(regex);
+            this.requiredSubstring = requiredSubstring(regex);
+            this.matcher = ThreadLocal.withInitial(() -> pattern.matcher(""));
+        }
+
+        @Override
+        public boolean isRegex() {
+            return true;
+        }
+
+        @Override
+        public boolean matches(String value) {
+            if (requiredSubstring != null && !value.contains(requiredSubstring)) {
+                return false;
+            }
+            return matcher.get().reset(value).matches();
+        }
+
+        @Override
+        public Optional<String> getRequiredSubstring() {
+            return Optional.ofNullable(requiredSubstring).map(String::toLowerCase);
+        }
+    }
+
+    /**
+     * Gets the longest run of literal characters that any match of the given regular expression
+     * must contain, or null if none can be determined. This errs on the side of returning null:
+     * anything inside groups or character classes is ignored, and patterns with alternation, embedded
+     * flags, or escapes that take arguments are not analyzed at all.
+     */
+    static String requiredSubstring(String regex) {
+        if (regex.contains("|") || regex.contains("(?")) {
+            return null;
+        }
+        String longest = "";
+        final StringBuilder run = new StringBuilder();
+        final int length = regex.length();
+        int i = 0;
+        while (i < length) {
+            final char c = regex.charAt(i);
+            if (c == '*' || c == '?' || c == '{') {
+                // the preceding character is optional
+                if (run.length() > 0) {
+                    run.setLength(run.length() - 1);
+                }
+                longest = longer(longest, run);
+                if (c == '{') {
+                    i = skipPast(regex, i, '}');
+                } else {
+                    i++;
+                }
+            } else if (c == '\\') {
+                if (i + 1 == length) {
+                    return null;
+                }
+                final char escaped = regex.charAt(i + 1);
+                if (!Character.isLetterOrDigit(escaped)) {
+                    run.append(escaped); // escaped punctuation is literal
+                } else if (SIMPLE_ESCAPES.indexOf(escaped) != -1) {
+                    longest = longer(longest, run);
+                } else {
+                    return null; // quoting, backreferences, or other escapes with arguments
+                }
+                i += 2;
+            } else if (c == '[') {
+                longest = longer(longest, run);
+                i = skipCharacterClass(regex, i);
+            } else if (c == '(') {
+                longest = longer(longest, run);
+                i = skipGroup(regex, i);
+            } else if (c == '+') {
+                // the preceding character is required, but may repeat
+                longest = longer(longest, run);
+                i++;
+            } else if (c == '.' || c == '^' || c == '$' || c == ')') {
+                longest = longer(longest, run);
+                i++;
+            } else {
+                run.append(c);
+                i++;
+            }
+        }
+        longest = longer(longest, run);
+        return longest.isEmpty() ? null : longest;
+    }
+
+    /**
+     * Returns the longer of the two, clearing the run.
+     */
+    private static String longer(String longest, StringBuilder run) {
+        if (run.length() > longest.length()) {
+            longest = run.toString();
+        }
+        run.setLength(0);
+        return longest;
+    }
+
+    private static int skipPast(String regex, int i, char c) {
+        final int j = regex.indexOf(c, i);
+        return j == -1 ? regex.length() : j + 1;
+    }
+
+    private static int skipCharacterClass(String regex, int i) {
+        int depth = 0;
+        for (int j = i; j < regex.length(); j++) {
+            final char c = regex.charAt(j);
+            if (c == '\\') {
+                j++;
+            } else if (c == '[') {
+                depth++;
+            } else if (c == ']' && j > i + 1 && !(j == i + 2 && regex.charAt(i + 1) == '^')) {
+                depth--;
+                if (depth == 0) {
+                    return j + 1;
+                }
+            }
+        }
+        return regex.length();
+    }
+
+    private static int skipGroup(String regex, int i) {
+        int depth = 0;
+        for (int j = i; j < regex.length(); j++) {
+            final char c = regex.charAt(j);
+            if (c == '\\') {
+                j++;
+            } else if (c == '[') {
+                j = skipCharacterClass(regex, j) - 1;
+            } else if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+                if (depth == 0) {
+                    return j + 1;
+                }
+            }
+        }
+        return regex.length();
+    }
+}
@@ -0,0 +1,575 @@
+package com.github.cwilper.gutenproc;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.primitives.UnsignedBytes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A persistent inverted index of the words in each book's plaintext, used to narrow down which
+ * books can possibly satisfy a text substring match before any text is loaded.
+ *
+ * A term is a maximal run of letters and digits in a lowercased line. Postings are kept at book
+ * granularity: each term maps to the (delta and varint-encoded) ids of the books containing it on
+ * at least one line. Books are identified by EText number, and the size and last modified time of
+ * each book's file is recorded, so books that were not indexed, or have changed since, are never
+ * ruled out.
+ *
+ * The file is laid out as a header, the book table, and then a sorted term dictionary followed
+ * by the postings; everything after the book table is read through a memory-mapped buffer.
+ */
+public final class TextIndex
+{
+    public static final String FILENAME = "text.idx";
+
+    private static final int MAGIC = 0x47505449; // "GPTI"
+
+    private static final int VERSION = 2;
+
+    private static final Comparator<byte[]> TERM_ORDER = UnsignedBytes.lexicographicalComparator();
+
+    private final Map<String, Integer> bookIds;
+
+    /**
+     * The stamps of the indexed books' files, by book id.
+     */
+    private final FileStamp[] fileStamps;
+
+    private final MappedByteBuffer buffer;
+
+    private final int termCount;
+
+    private final int termOffsetsStart;
+
+    private final int termBytesStart;
+
+    private final int postingOffsetsStart;
+
+    private final int postingsStart;
+
+    private TextIndex(Map<String, Integer> bookIds, FileStamp[] fileStamps, MappedByteBuffer buffer) {
+        this.bookIds = bookIds;
+        this.fileStamps = fileStamps;
+        this.buffer = buffer;
+        termCount = buffer.getInt();
+        termOffsetsStart = buffer.position();
+        termBytesStart = termOffsetsStart + (termCount + 1) * 4;
+        postingOffsetsStart = termBytesStart + buffer.getInt(termOffsetsStart + termCount * 4);
+        postingsStart = postingOffsetsStart + (termCount + 1) * 8;
+    }
+
+    /**
+     * Opens the index in the given file, if it exists and is readable.
+     */
+    public static Optional<TextIndex> open(Path file) {
+        if (!Files.isRegularFile(file)) {
+            return Optional.empty();
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                System.err.println("Warning: Ignoring text index larger than 2GB: " + file);
+                return Optional.empty();
+            }
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return Optional.empty();
+            }
+            final int bookCount = buffer.getInt();
+            final Map<String, Integer> bookIds = Maps.newHashMapWithExpectedSize(bookCount);
+            final FileStamp[] fileStamps = new FileStamp[bookCount];
+            byte[] bytes = new byte[32];
+            for (int i = 0; i < bookCount; i++) {
+                final int length = buffer.getInt();
+                if (length > bytes.length) {
+                    bytes = new byte[length];
+                }
+                buffer.get(bytes, 0, length);
+                bookIds.put(new String(bytes, 0, length, UTF_8), i);
+                fileStamps[i] = FileStamp.read(buffer);
+            }
+            return Optional.of(new TextIndex(bookIds, fileStamps, buffer));
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Warning: Ignoring unreadable text index " + file + ": " + e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Gets the number of books in the index.
+     */
+    public int getBookCount() {
+        return bookIds.size();
+    }
+
+    /**
+     * Gets the id of the given book within the index, or -1 if it wasn't indexed, or its file has
+     * changed since.
+     */
+    public int bookId(Book book) {
+        final Optional<String> etextNo = book.getFirst(Field.ETEXT_NO);
+        if (etextNo.isPresent()) {
+            final Integer id = bookIds.get(etextNo.get());
+            if (id != null && fileStamps[id].matches(book.getFileStamp())) {
+                return id;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the ids of all indexed books that may contain a line with the given lowercase substring.
+     * Every indexed book that actually contains such a line is included, but some books that don't
+     * may be included as well, so candidates must still be verified against the text.
+     *
+     * If the substring contains no terms, nothing can be ruled out and empty is returned.
+     */
+    public Optional<BitSet> candidates(String lcSubstring) {
+        BitSet result = null;
+        final int length = lcSubstring.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !isTermChar(lcSubstring.charAt(i))) {
+                i++;
+            }
+            final int start = i;
+            while (i < length && isTermChar(lcSubstring.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                // a term at either end of the substring may just be part of a longer term in the text
+                final byte[] term = lcSubstring.substring(start, i).getBytes(UTF_8);
+                final BitSet books = postings(term, start == 0, i == length);
+                if (result == null) {
+                    result = books;
+                } else {
+                    result.and(books);
+                }
+            }
+        }
+        return Optional.ofNullable(result);
+    }
+
+    private BitSet postings(byte[] term, boolean matchSuffix, boolean matchPrefix) {
+        final BitSet books = new BitSet(bookIds.size());
+        if (!matchSuffix) {
+            // all matching terms are in a contiguous range of the dictionary
+            for (int t = lowerBound(term); t < termCount && startsWith(t, term); t++) {
+                if (matchPrefix || termLength(t) == term.length) {
+                    addPostings(t, books);
+                }
+            }
+        } else {
+            for (int t = 0; t < termCount; t++) {
+                if (contains(t, term, matchPrefix)) {
+                    addPostings(t, books);
+                }
+            }
+        }
+        return books;
+    }
+
+    private int lowerBound(byte[] term) {
+        int low = 0;
+        int high = termCount;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (compare(mid, term) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int termStart(int t) {
+        return termBytesStart + buffer.getInt(termOffsetsStart + t * 4);
+    }
+
+    private int termLength(int t) {
+        return buffer.getInt(termOffsetsStart + (t + 1) * 4) - buffer.getInt(termOffsetsStart + t * 4);
+    }
+
+    private int compare(int t, byte[] term) {
+        final int start = termStart(t);
+        final int length = termLength(t);
+        for (int i = 0; i < length && i < term.length; i++) {
+            final int result = UnsignedBytes.compare(buffer.get(start + i), term[i]);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return length - term.length;
+    }
+
+    private boolean startsWith(int t, byte[] term) {
+        return termLength(t) >= term.length && regionMatches(termStart(t), term);
+    }
+
+    /**
+     * Tells whether the given term ends with the given bytes, or if matchPrefix is true,
+     * contains them anywhere.
+     */
+    private boolean contains(int t, byte[] term, boolean matchPrefix) {
+        final int start = termStart(t);
+        final int last = start + termLength(t) - term.length;
+        if (!matchPrefix) {
+            return last >= start && regionMatches(last, term);
+        }
+        for (int i = start; i <= last; i++) {
+            if (regionMatches(i, term)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean regionMatches(int offset, byte[] term) {
+        for (int i = 0; i < term.length; i++) {
+            if (buffer.get(offset + i) != term[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void addPostings(int t, BitSet books) {
+        int position = (int) (postingsStart + buffer.getLong(postingOffsetsStart + t * 8));
+        final int end = (int) (postingsStart + buffer.getLong(postingOffsetsStart + (t + 1) * 8));
+        int book = 0;
+        while (position < end) {
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get(position++);
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            book += delta;
+            books.set(book);
+        }
+    }
+
+    static boolean isTermChar(char c) {
+        return Character.isLetterOrDigit(c);
+    }
+
+    /**
+     * Adds the distinct terms in the given line to the given set.
+     */
+    public static void addTerms(String line, Set<String> terms) {
+        final String lcLine = line.toLowerCase();
+        final int length = lcLine.length();
+        int start = -1;
+        for (int i = 0; i <= length; i++) {
+            if (i < length && isTermChar(lcLine.charAt(i))) {
+                if (start == -1) {
+                    start = i;
+                }
+            } else if (start != -1) {
+                terms.add(lcLine.substring(start, i));
+                start = -1;
+            }
+        }
+    }
+
+    /**
+     * Builds an index file. Postings are accumulated in memory and spilled to sorted segment files
+     * as needed, which are merged into the final file when the writer is closed.
+     */
+    public static final class Writer implements AutoCloseable
+    {
+        private static final long MAX_BUFFERED_POSTINGS = 1L << 24;
+
+        private final Path file;
+
+        private final List<String> books = Lists.newArrayList();
+
+        private final List<FileStamp> fileStamps = Lists.newArrayList();
+
+        private final List<Path> segments = Lists.newArrayList();
+
+        private Map<String, IntList> postings = Maps.newHashMap();
+
+        private long bufferedPostings;
+
+        private int termCount;
+
+        public Writer(Path file) {
+            this.file = file;
+        }
+
+        /**
+         * Adds a book with the given terms. Books without any text should be added with no terms,
+         * so they can be ruled out by queries.
+         */
+        public synchronized void add(Book book, Collection<String> terms) {
+            final int bookId = books.size();
+            books.add(book.getFirst(Field.ETEXT_NO).get());
+            fileStamps.add(book.getFileStamp());
+            for (String term : terms) {
+                IntList bookIds = postings.get(term);
+                if (bookIds == null) {
+                    bookIds = new IntList();
+                    postings.put(term, bookIds);
+                }
+                bookIds.add(bookId);
+            }
+            bufferedPostings += terms.size();
+            if (bufferedPostings >= MAX_BUFFERED_POSTINGS) {
+                try {
+                    flushSegment();
+                } catch (IOException e) {
+                    throw Throwables.propagate(e);
+                }
+            }
+        }
+
+        public synchronized int getBookCount() {
+            return books.size();
+        }
+
+        public synchronized int getTermCount() {
+            return termCount;
+        }
+
+        private void flushSegment() throws IOException {
+            final List<byte[]> terms = Lists.newArrayListWithCapacity(postings.size());
+            final Map<byte[], IntList> sorted = Maps.newIdentityHashMap();
+            for (Map.Entry<String, IntList> entry : postings.entrySet()) {
+                final byte[] term = entry.getKey().getBytes(UTF_8);
+                terms.add(term);
+                sorted.put(term, entry.getValue());
+            }
+            terms.sort(TERM_ORDER);
+            Files.createDirectories(file.getParent());
+            final Path segment = file.resolveSibling(file.getFileName() + ".seg" + segments.size());
+            try (OutputStream out = Files.newOutputStream(segment);
+                 DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 1 << 16))) {
+                for (byte[] term : terms) {
+                    final IntList bookIds = sorted.get(term);
+                    data.writeInt(term.length);
+                    data.write(term);
+                    data.writeInt(bookIds.size);
+                    for (int i = 0; i < bookIds.size; i++) {
+                        data.writeInt(bookIds.values[i]);
+                    }
+                }
+            }
+            segments.add(segment);
+            postings = Maps.newHashMap();
+            bufferedPostings = 0;
+        }
+
+        /**
+         * Merges all segments into the index file, replacing any existing one.
+         */
+        @Override
+        public synchronized void close() throws IOException {
+            flushSegment();
+            final Path postingsFile = file.resolveSibling(file.getFileName() + ".postings");
+            final Path tempFile = file.resolveSibling(file.getFileName() + ".tmp");
+            final ByteList termBytes = new ByteList();
+            final IntList termOffsets = new IntList();
+            final LongList postingOffsets = new LongList();
+            final List<SegmentReader> readers = Lists.newArrayList();
+            try {
+                final PriorityQueue<SegmentReader> queue = new PriorityQueue<>((a, b) -> {
+                    final int result = TERM_ORDER.compare(a.term, b.term);
+                    return result != 0 ? result : Integer.compare(a.segment, b.segment);
+                });
+                for (int i = 0; i < segments.size(); i++) {
+                    final SegmentReader reader = new SegmentReader(i, segments.get(i));
+                    readers.add(reader);
+                    if (reader.next()) {
+                        queue.add(reader);
+                    }
+                }
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(postingsFile), 1 << 16)) {
+                    long position = 0;
+                    while (!queue.isEmpty()) {
+                        // segments hold increasing book ids, so same-term postings concatenate in segment order
+                        final byte[] term = queue.peek().term;
+                        termOffsets.add(termBytes.size);
+                        termBytes.add(term);
+                        postingOffsets.add(position);
+                        int previous = 0;
+                        while (!queue.isEmpty() && TERM_ORDER.compare(queue.peek().term, term) == 0) {
+                            final SegmentReader reader = queue.poll();
+                            for (int j = 0; j < reader.bookCount; j++) {
+                                position += writeVarint(out, reader.bookIds[j] - previous);
+                                previous = reader.bookIds[j];
+                            }
+                            if (reader.next()) {
+                                queue.add(reader);
+                            }
+                        }
+                    }
+                    termOffsets.add(termBytes.size);
+                    postingOffsets.add(position);
+                }
+            } finally {
+                for (SegmentReader reader : readers) {
+                    reader.close();
+                }
+                for (Path segment : segments) {
+                    Files.deleteIfExists(segment);
+                }
+            }
+            termCount = termOffsets.size - 1;
+            try (OutputStream out = Files.newOutputStream(tempFile);
+                 DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 1 << 16))) {
+                data.writeInt(MAGIC);
+                data.writeInt(VERSION);
+                data.writeInt(books.size());
+                for (int i = 0; i < books.size(); i++) {
+                    final byte[] bytes = books.get(i).getBytes(UTF_8);
+                    data.writeInt(bytes.length);
+                    data.write(bytes);
+                    fileStamps.get(i).write(data);
+                }
+                data.writeInt(termCount);
+                for (int i = 0; i < termOffsets.size; i++) {
+                    data.writeInt(termOffsets.values[i]);
+                }
+                data.write(termBytes.values, 0, termBytes.size);
+                for (int i = 0; i < postingOffsets.size; i++) {
+                    data.writeLong(postingOffsets.values[i]);
+                }
+                Files.copy(postingsFile, data);
+            } finally {
+                Files.deleteIfExists(postingsFile);
+            }
+            Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private static int writeVarint(OutputStream out, int value) throws IOException {
+            int count = 1;
+            while ((value & ~0x7F) != 0) {
+                out.write((value & 0x7F) | 0x80);
+                value >>>= 7;
+                count++;
+            }
+            out.write(value);
+            return count;
+        }
+    }
+
+    private static final class SegmentReader implements AutoCloseable
+    {
+        private final int segment;
+
+        private final DataInputStream in;
+
+        private byte[] term;
+
+        private int[] bookIds = new int[16];
+
+        private int bookCount;
+
+        private SegmentReader(int segment, Path path) throws IOException {
+            this.segment = segment;
+            final InputStream stream = Files.newInputStream(path);
+            this.in = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+        }
+
+        private boolean next() throws IOException {
+            final int length;
+            try {
+                length = in.readInt();
+            } catch (EOFException e) {
+                return false;
+            }
+            term = new byte[length];
+            in.readFully(term);
+            bookCount = in.readInt();
+            if (bookCount > bookIds.length) {
+                bookIds = new int[bookCount];
+            }
+            for (int i = 0; i < bookCount; i++) {
+                bookIds[i] = in.readInt();
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static final class IntList
+    {
+        private int[] values = new int[4];
+
+        private int size;
+
+        private void add(int value) {
+            if (size == values.length) {
+                final int[] grown = new int[size * 2];
+                System.arraycopy(values, 0, grown, 0, size);
+                values = grown;
+            }
+            values[size++] = value;
+        }
+    }
+
+    private static final class LongList
+    {
+        private long[] values = new long[1024];
+
+        private int size;
+
+        private void add(long value) {
+            if (size == values.length) {
+                final long[] grown = new long[size * 2];
+                System.arraycopy(values, 0, grown, 0, size);
+                values = grown;
+            }
+            values[size++] = value;
+        }
+    }
+
+    private static final class ByteList
+    {
+        private byte[] values = new byte[1 << 16];
+
+        private int size;
+
+        private void add(byte[] bytes) {
+            if (size + bytes.length > values.length) {
+                final byte[] grown = new byte[Math.max(values.length * 2, size + bytes.length)];
+                System.arraycopy(values, 0, grown, 0, size);
+                values = grown;
+            }
+            System.arraycopy(bytes, 0, values, size, bytes.length);
+            size += bytes.length;
+        }
+    }
+}
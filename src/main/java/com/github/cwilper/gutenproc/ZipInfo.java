@@ -0,0 +1,74 @@
+package com.github.cwilper.gutenproc;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * What a book's zip file contains, according to its central directory.
+ */
+public final class ZipInfo
+{
+    /**
+     * Info for a zip file that couldn't be read.
+     */
+    static final ZipInfo UNREADABLE = new ZipInfo(null, null);
+
+    private final List<String> entryNames;
+
+    private final long[] entrySizes;
+
+    private ZipInfo(List<String> entryNames, long[] entrySizes) {
+        this.entryNames = entryNames;
+        this.entrySizes = entrySizes;
+    }
+
+    static ZipInfo of(ZipFile zipFile) {
+        final ImmutableList.Builder<String> names = ImmutableList.builder();
+        final long[] sizes = new long[zipFile.size()];
+        final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+        for (int i = 0; entries.hasMoreElements() && i < sizes.length; i++) {
+            final ZipEntry entry = entries.nextElement();
+            names.add(entry.getName());
+            sizes[i] = entry.getSize();
+        }
+        return new ZipInfo(names.build(), sizes);
+    }
+
+    public boolean isReadable() {
+        return entryNames != null;
+    }
+
+    /**
+     * Gets the number of entries, or -1 if the zip file couldn't be read.
+     */
+    public int getEntryCount() {
+        return isReadable() ? entryNames.size() : -1;
+    }
+
+    public List<String> getEntryNames() {
+        return isReadable() ? entryNames : ImmutableList.of();
+    }
+
+    /**
+     * Gets the uncompressed size of the i'th entry, or -1 if unknown.
+     */
+    public long getEntrySize(int i) {
+        return entrySizes[i];
+    }
+
+    /**
+     * Gets the name of the entry to read plaintext from. There is one only if the zip file holds
+     * nothing but a single .txt file.
+     */
+    public Optional<String> getTextEntryName() {
+        if (getEntryCount() == 1 && entryNames.get(0).endsWith(".txt")) {
+            return Optional.of(entryNames.get(0));
+        }
+        return Optional.empty();
+    }
+}
@@ -3,44 +3,102 @@ package com.github.cwilper.gutenproc.dspace;
 import com.github.cwilper.gutenproc.BaseProcessor;
 import com.github.cwilper.gutenproc.Book;
 import com.github.cwilper.gutenproc.Commandline;
+import com.github.cwilper.gutenproc.DVD;
 import com.github.cwilper.gutenproc.Field;
+import com.github.cwilper.gutenproc.Metrics;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.xml.XmlEscapers;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
-import org.apache.pdfbox.io.IOUtils;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
 import java.util.Enumeration;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 @SuppressWarnings("unused")
 public class DSpaceProcessor extends BaseProcessor
 {
+    /**
+     * Puts EText numbers in numeric order, assuming they have no leading zeros.
+     */
+    private static final Comparator<String> ETEXT_ORDER =
+            Comparator.comparingInt(String::length).thenComparing(Comparator.naturalOrder());
+
+    /**
+     * Large enough that most zip entries are inflated and written in a few calls.
+     */
+    private static final ThreadLocal<byte[]> COPY_BUFFER = ThreadLocal.withInitial(() -> new byte[1 << 18]);
+
+    private static final Metrics.Timer COPY_ORIG = Metrics.timer("dspace.copy-orig");
+
+    private static final Metrics.Timer EXPLODE = Metrics.timer("dspace.explode");
+
+    /**
+     * The most skipped books to list by EText number at the end of a run with several workers.
+     */
+    private static final int MAX_LISTED_SKIPS = 20;
+
     private File outputDir;
     private boolean noOrig;
+    private boolean linkOrig;
     private boolean explodeAll;
     private boolean explodeOne;
     private boolean generateStrippedText;
     private boolean generatePdf;
     private boolean generateStrippedPdf;
+    private int workers;
+
+    /**
+     * The options that affect what goes into each item, as recorded in the manifest.
+     */
+    private String options;
+    private ExportManifest manifest;
+    private final AtomicInteger unchanged = new AtomicInteger();
+
+    private ExecutorService executor;
+    private Semaphore queueSlots;
+
+    private final Set<String> skipped = new ConcurrentSkipListSet<>(ETEXT_ORDER);
+    private final Map<String, String> failures = new ConcurrentSkipListMap<>(ETEXT_ORDER);
 
     @Override
     public String getSynopsis() {
         return "Creates a directory of items that can be ingested into DSpace";
     }
 
+    @Override
+    public boolean writesFiles(Commandline cmd) {
+        return true;
+    }
+
     @Override
     public void addOptions(Options options) {
         super.addOptions(options);
@@ -53,6 +111,10 @@ public class DSpaceProcessor extends BaseProcessor
                 .longOpt("no-orig")
                 .desc("Don't store the original file as a bitstream")
                 .build());
+        options.addOption(Option.builder("lo")
+                .longOpt("link-orig")
+                .desc("Hard link the original file into the item instead of copying it, where possible")
+                .build());
         options.addOption(Option.builder("ea")
                 .longOpt("explode-all")
                 .desc("If the original file is a zip, save all files within as bitstreams")
@@ -76,6 +138,17 @@ public class DSpaceProcessor extends BaseProcessor
                 .desc("If the original file is plaintext or is a single-file zip with plaintext,"
                         + " save a stripped PDF version of it as a bitstream.")
                 .build());
+        options.addOption(Option.builder("r")
+                .longOpt("resume")
+                .desc("Continue an earlier export into the same output directory, rebuilding only the items"
+                        + " that are missing, incomplete, or out of date")
+                .build());
+        options.addOption(Option.builder("w")
+                .longOpt("workers")
+                .desc("Number of items to build concurrently. Default is 1. When greater than 1, a limit"
+                        + " counts books queued rather than items added")
+                .hasArg()
+                .build());
     }
 
     @Override
@@ -83,50 +156,162 @@ public class DSpaceProcessor extends BaseProcessor
         super.begin(cmd);
         Preconditions.checkArgument(cmd.hasOption("o"), "Missing required option: o");
         outputDir = new File(cmd.getOptionValue("o").get());
-        Preconditions.checkArgument(!outputDir.exists(), "Output directory already exists");
-        Preconditions.checkArgument(outputDir.mkdir(), "Unable to create output directory");
+        if (cmd.hasOption("r") && outputDir.exists()) {
+            Preconditions.checkArgument(outputDir.isDirectory(), "Output directory is not a directory");
+        } else {
+            Preconditions.checkArgument(!outputDir.exists(), "Output directory already exists");
+            Preconditions.checkArgument(outputDir.mkdir(), "Unable to create output directory");
+        }
         noOrig = cmd.hasOption("no");
+        linkOrig = cmd.hasOption("lo");
         explodeAll = cmd.hasOption("ea");
         explodeOne = cmd.hasOption("eo");
         generateStrippedText = cmd.hasOption("gst");
         generatePdf = cmd.hasOption("gp");
         generateStrippedPdf = cmd.hasOption("gsp");
+        options = Stream.of("no", "ea", "eo", "gst", "gp", "gsp").filter(cmd::hasOption).collect(Collectors.joining(","));
+        try {
+            manifest = ExportManifest.open(outputDir);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        workers = cmd.getOptionIntValue("w", 1);
+        Preconditions.checkArgument(workers >= 1, "Number of workers must be at least 1");
+    }
+
+    @Override
+    protected void beforeScan(DVD dvd) {
+        if (workers > 1) {
+            executor = Executors.newFixedThreadPool(workers);
+            queueSlots = new Semaphore(workers * 2);
+        }
+    }
+
+    @Override
+    protected void afterScan(boolean completed) {
+        try {
+            if (executor != null) {
+                executor.shutdown();
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        } finally {
+            try {
+                manifest.close();
+            } catch (IOException e) {
+                Throwables.propagate(e);
+            }
+        }
     }
 
     @Override
     public boolean test(final Book book) {
+        final String etextNo = book.getFirst(Field.ETEXT_NO).get();
+        final File itemDir = new File(outputDir, "book_" + etextNo);
+        final String message = "Creating package for book #" + matchCount.get() + " of " + scanCount.get() + " scanned. ";
+        if (manifest.isUpToDate(etextNo, options, book.getFile(), itemDir, getDcXml(book))) {
+            if (manifest.isSkipped(etextNo)) {
+                // reported and limited as it was when first skipped; workers count it as queued
+                out.println(message + getStatus(etextNo, 0));
+                return executor != null;
+            }
+            unchanged.incrementAndGet();
+            out.println(message + "UNCHANGED; Already exported");
+            return true;
+        }
+        if (executor == null) {
+            out.print(message);
+            try {
+                final int bitstreamCount = createItem(book, itemDir);
+                out.println(getStatus(etextNo, bitstreamCount));
+                return bitstreamCount > 0;
+            } catch (Exception e) {
+                deleteItem(itemDir);
+                out.println("FAILED");
+                throw Throwables.propagate(e);
+            }
+        }
+        // wait for room in the queue, so we don't get too far ahead of the workers
         try {
-            System.out.print("Creating package for book #" + matchCount + " of " + scanCount + " scanned. ");
-            final File itemDir = new File(outputDir, "book_" + book.getFirst(Field.ETEXT_NO).get());
-            Preconditions.checkState(itemDir.mkdir());
-
-            // add bitstreams, returning early if none are eligible
-            final List<String> bitstreams = addBitstreams(book, itemDir);
-            if (bitstreams.isEmpty()) {
-                itemDir.delete();
-                System.out.println("SKIPPED; No eligible bitstreams");
-                return false;
-            }
-
-            // add content file with list of bitstreams
-            final String contents = getContents(bitstreams);
-            final File contentsFile = new File(itemDir, "contents");
-            com.google.common.io.Files.write(contents, contentsFile, StandardCharsets.UTF_8);
-
-            // add dublin_core.xml
-            final String dc = getDcXml(book);
-            final File dcFile = new File(itemDir, "dublin_core.xml");
-            com.google.common.io.Files.write(dc, dcFile, StandardCharsets.UTF_8);
-
-            final String suffix = bitstreams.size() == 1 ? "" : "s";
-            System.out.println("Added " + bitstreams.size() + " bitstream" + suffix);
-        } catch (Exception e) {
-            System.out.println("FAILED");
-            Throwables.propagate(e);
+            queueSlots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
         }
+        executor.execute(() -> {
+            try {
+                final int bitstreamCount = createItem(book, itemDir);
+                out.println(message + getStatus(etextNo, bitstreamCount));
+            } catch (Exception e) {
+                deleteItem(itemDir);
+                failures.put(etextNo, e.toString());
+                out.println(message + "FAILED; " + e);
+            } finally {
+                queueSlots.release();
+            }
+        });
         return true;
     }
 
+    /**
+     * Creates the item directory for a book, removing it again if it ends up with no bitstreams.
+     *
+     * @return the number of bitstreams added.
+     */
+    private int createItem(Book book, File itemDir) throws IOException {
+        // start over if a previous export left anything behind
+        deleteItem(itemDir);
+        Preconditions.checkState(itemDir.mkdir(), "Unable to create item directory: " + itemDir);
+
+        // add bitstreams, returning early if none are eligible
+        final List<String> bitstreams = addBitstreams(book, itemDir);
+        if (bitstreams.isEmpty()) {
+            itemDir.delete();
+            manifest.add(book.getFirst(Field.ETEXT_NO).get(), options, book.getFile(), itemDir);
+            return 0;
+        }
+
+        // add content file with list of bitstreams
+        final String contents = getContents(bitstreams);
+        final File contentsFile = new File(itemDir, "contents");
+        com.google.common.io.Files.write(contents, contentsFile, StandardCharsets.UTF_8);
+
+        // add dublin_core.xml
+        final String dc = getDcXml(book);
+        final File dcFile = new File(itemDir, "dublin_core.xml");
+        com.google.common.io.Files.write(dc, dcFile, StandardCharsets.UTF_8);
+
+        manifest.add(book.getFirst(Field.ETEXT_NO).get(), options, book.getFile(), itemDir);
+        return bitstreams.size();
+    }
+
+    private String getStatus(String etextNo, int bitstreamCount) {
+        if (bitstreamCount == 0) {
+            skipped.add(etextNo);
+            return "SKIPPED; No eligible bitstreams";
+        }
+        final String suffix = bitstreamCount == 1 ? "" : "s";
+        return "Added " + bitstreamCount + " bitstream" + suffix;
+    }
+
+    /**
+     * Deletes whatever was written for an item that couldn't be completed.
+     */
+    private static void deleteItem(File itemDir) {
+        if (!itemDir.exists()) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(itemDir.toPath())) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Warning: Unable to remove partial item " + itemDir + ": " + e);
+        }
+    }
+
     private String getContents(List<String> bitstreams) {
         StringBuilder s = new StringBuilder();
         for (String bitstream : bitstreams) {
@@ -161,14 +346,8 @@ public class DSpaceProcessor extends BaseProcessor
 
         if (generateStrippedText || generatePdf || generateStrippedPdf) {
             if (generateStrippedText) {
-                final Optional<List<String>> strippedText = book.getPlaintextContent(true);
-                if (strippedText.isPresent()) {
-                    final String name = book.getBaseFilename() + "-gens.txt";
-                    try {
-                        Files.write(new File(itemDir, name).toPath(), strippedText.get(), StandardCharsets.UTF_8);
-                    } catch (IOException e) {
-                        Throwables.propagate(e);
-                    }
+                final String name = book.getBaseFilename() + "-gens.txt";
+                if (writeText(book, new File(itemDir, name))) {
                     bitstreams.add(name);
                 }
             }
@@ -189,34 +368,105 @@ public class DSpaceProcessor extends BaseProcessor
         return bitstreams;
     }
 
+    private static boolean writeText(Book book, File file) {
+        final BufferedWriter[] writer = new BufferedWriter[1];
+        try {
+            return book.scanPlaintext(true, (lineNum, line) -> {
+                try {
+                    if (writer[0] == null) {
+                        writer[0] = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8);
+                    }
+                    writer[0].write(line);
+                    writer[0].newLine();
+                } catch (IOException e) {
+                    throw Throwables.propagate(e);
+                }
+                return true;
+            });
+        } finally {
+            if (writer[0] != null) {
+                try {
+                    writer[0].close();
+                } catch (IOException e) {
+                    Throwables.propagate(e);
+                }
+            }
+        }
+    }
+
     private String addOrig(Book book, File itemDir) {
         final File outputFile = new File(itemDir, book.getFile().getName());
+        final long start = COPY_ORIG.start();
         try {
-            com.google.common.io.Files.copy(book.getFile(), outputFile);
+            if (!linkOrig || !link(book.getFile().toPath(), outputFile.toPath())) {
+                copy(book.getFile().toPath(), outputFile.toPath());
+            }
         } catch (IOException e) {
             Throwables.propagate(e);
         }
+        COPY_ORIG.stop(start);
         return outputFile.getName();
     }
 
+    /**
+     * Hard links the source to the target, returning false if that isn't possible, as when they're
+     * on different file systems.
+     */
+    private static boolean link(Path source, Path target) {
+        try {
+            Files.createLink(target, source);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Copies the source to the target, letting the kernel move the bytes where it can.
+     */
+    private static void copy(Path source, Path target) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            final long size = in.size();
+            long position = 0;
+            while (position < size) {
+                final long transferred = in.transferTo(position, size - position, out);
+                if (transferred == 0) {
+                    throw new IOException("File shrank to " + position + " bytes while being copied: " + source);
+                }
+                position += transferred;
+            }
+            Metrics.BYTES_READ.add(size);
+            Metrics.BYTES_WRITTEN.add(size);
+        }
+    }
+
     private List<String> explode(Book book, File itemDir) {
         final List<String> bitstreams = Lists.newArrayList();
-        try {
-            final ZipFile zipFile = new ZipFile(book.getFile());
-            final Enumeration entries = zipFile.entries();
+        final byte[] buffer = COPY_BUFFER.get();
+        final long start = EXPLODE.start();
+        try (ZipFile zipFile = new ZipFile(book.getFile())) {
+            final Enumeration<? extends ZipEntry> entries = zipFile.entries();
             while (entries.hasMoreElements()) {
-                final ZipEntry entry = (ZipEntry) entries.nextElement();
+                final ZipEntry entry = entries.nextElement();
                 final String name = entry.getName().replaceAll("/", "_");
                 bitstreams.add(name);
                 final File outFile = new File(itemDir, name);
                 try (InputStream in = zipFile.getInputStream(entry);
                      OutputStream out = new FileOutputStream(outFile)) {
-                    IOUtils.copy(in, out);
+                    int n;
+                    while ((n = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, n);
+                        Metrics.BYTES_WRITTEN.add(n);
+                    }
                 }
+                Metrics.BYTES_READ.add(Math.max(entry.getCompressedSize(), 0));
             }
         } catch (IOException e) {
             Throwables.propagate(e);
         }
+        EXPLODE.stop(start);
         return bitstreams;
     }
 
@@ -242,6 +492,22 @@ public class DSpaceProcessor extends BaseProcessor
 
     @Override
     public void end() {
-        System.out.println("Added " + matchCount + " of " + scanCount + " scanned");
+        out.println("Added " + matchCount.get() + " of " + scanCount.get() + " scanned");
+        if (unchanged.get() > 0) {
+            out.println("Kept " + unchanged.get() + " unchanged from an earlier export");
+        }
+        // one worker reports skipped books in order as it goes; with more they're scattered
+        if (executor != null && !skipped.isEmpty()) {
+            final StringBuilder line = new StringBuilder("Skipped " + skipped.size() + " with no eligible bitstreams: ");
+            line.append(String.join(", ", Iterables.limit(skipped, MAX_LISTED_SKIPS)));
+            if (skipped.size() > MAX_LISTED_SKIPS) {
+                line.append(", and ").append(skipped.size() - MAX_LISTED_SKIPS).append(" more");
+            }
+            out.println(line);
+        }
+        if (!failures.isEmpty()) {
+            out.println("Failed " + failures.size() + ":");
+            failures.forEach((etextNo, error) -> out.println("  book_" + etextNo + ": " + error));
+        }
     }
 }
@@ -0,0 +1,182 @@
+package com.github.cwilper.gutenproc.dspace;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A journal of the items completed by an export, kept in the output directory so an interrupted
+ * or repeated export can skip the items that are already up to date.
+ *
+ * Each completed item is appended as one tab-separated line as soon as it's written:
+ * the EText number, the options it was built with, the size and modification time of the
+ * original file, then the name, size, and SHA-1 of each file in the item directory. An item that
+ * was skipped for lack of bitstreams is recorded with no files. Later lines for the same EText
+ * number supersede earlier ones, and lines that can't be parsed, like one cut short by a crash,
+ * are ignored.
+ */
+final class ExportManifest implements Closeable
+{
+    static final String FILENAME = ".gutenproc-export";
+
+    private final Map<String, Item> items;
+
+    private final BufferedWriter journal;
+
+    private ExportManifest(Map<String, Item> items, BufferedWriter journal) {
+        this.items = items;
+        this.journal = journal;
+    }
+
+    /**
+     * Opens the manifest in the given output directory, reading any items already recorded there.
+     */
+    static ExportManifest open(File outputDir) throws IOException {
+        final Path file = outputDir.toPath().resolve(FILENAME);
+        final Map<String, Item> items = Maps.newHashMap();
+        if (Files.exists(file)) {
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    final Item item = Item.parse(line);
+                    if (item != null) {
+                        items.put(item.etextNo, item);
+                    }
+                }
+            }
+        }
+        return new ExportManifest(items, Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND));
+    }
+
+    /**
+     * Tells whether the given item directory still holds what was recorded for the book,
+     * given the current options, original file, and Dublin Core metadata.
+     */
+    boolean isUpToDate(String etextNo, String options, File original, File itemDir, String dcXml) {
+        final Item item = items.get(etextNo);
+        if (item == null || !item.options.equals(options) || item.originalSize != original.length()
+                || item.originalModified != original.lastModified()) {
+            return false;
+        }
+        if (item.files.isEmpty()) {
+            return !itemDir.exists();
+        }
+        final String dcSha1 = sha1(dcXml.getBytes(StandardCharsets.UTF_8));
+        for (ItemFile itemFile : item.files) {
+            final File file = new File(itemDir, itemFile.name);
+            if (file.length() != itemFile.size
+                    || (itemFile.name.equals("dublin_core.xml") && !itemFile.sha1.equals(dcSha1))) {
+                return false;
+            }
+        }
+        final String[] names = itemDir.list();
+        return names != null && names.length == item.files.size();
+    }
+
+    /**
+     * Tells whether the book was recorded as skipped for lack of bitstreams, so no item was created.
+     */
+    boolean isSkipped(String etextNo) {
+        final Item item = items.get(etextNo);
+        return item != null && item.files.isEmpty();
+    }
+
+    /**
+     * Records a completed item, hashing every file in its directory.
+     */
+    void add(String etextNo, String options, File original, File itemDir) throws IOException {
+        final StringBuilder line = new StringBuilder();
+        line.append(etextNo).append('\t').append(options).append('\t').append(original.length())
+                .append('\t').append(original.lastModified());
+        final String[] names = itemDir.list();
+        if (names != null) {
+            Arrays.sort(names);
+            for (String name : names) {
+                final File file = new File(itemDir, name);
+                line.append('\t').append(name).append('\t').append(file.length()).append('\t')
+                        .append(com.google.common.io.Files.hash(file, Hashing.sha1()));
+            }
+        }
+        synchronized (journal) {
+            journal.write(line.toString());
+            journal.newLine();
+            journal.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (journal) {
+            journal.close();
+        }
+    }
+
+    private static String sha1(byte[] bytes) {
+        return Hashing.sha1().hashBytes(bytes).toString();
+    }
+
+    private static final class Item
+    {
+        private final String etextNo;
+        private final String options;
+        private final long originalSize;
+        private final long originalModified;
+        private final List<ItemFile> files;
+
+        private Item(String etextNo, String options, long originalSize, long originalModified, List<ItemFile> files) {
+            this.etextNo = etextNo;
+            this.options = options;
+            this.originalSize = originalSize;
+            this.originalModified = originalModified;
+            this.files = files;
+        }
+
+        private static Item parse(String line) {
+            final List<String> parts = Splitter.on('\t').splitToList(line);
+            if (parts.size() < 4 || (parts.size() - 4) % 3 != 0) {
+                return null;
+            }
+            try {
+                final List<ItemFile> files = Lists.newArrayList();
+                for (int i = 4; i < parts.size(); i += 3) {
+                    if (parts.get(i + 2).length() != 40) {
+                        return null; // cut short
+                    }
+                    files.add(new ItemFile(parts.get(i), Long.parseLong(parts.get(i + 1)), parts.get(i + 2)));
+                }
+                return new Item(parts.get(0), parts.get(1), Long.parseLong(parts.get(2)),
+                        Long.parseLong(parts.get(3)), files);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+    }
+
+    private static final class ItemFile
+    {
+        private final String name;
+        private final long size;
+        private final String sha1;
+
+        private ItemFile(String name, long size, String sha1) {
+            this.name = name;
+            this.size = size;
+            this.sha1 = sha1;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.github.cwilper.gutenproc.index;
+
+import com.github.cwilper.gutenproc.BaseProcessor;
+import com.github.cwilper.gutenproc.Book;
+import com.github.cwilper.gutenproc.Commandline;
+import com.github.cwilper.gutenproc.DVD;
+import com.github.cwilper.gutenproc.TextIndex;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Sets;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@SuppressWarnings("unused")
+public class IndexProcessor extends BaseProcessor
+{
+    private final AtomicInteger textCount = new AtomicInteger();
+
+    private TextIndex.Writer writer;
+
+    private Path indexFile;
+
+    @Override
+    public String getSynopsis() {
+        return "Builds a full-text index that speeds up subsequent --match-text queries";
+    }
+
+    @Override
+    public String getHelpFooter() {
+        return "Indexing:\nThe index is saved in the cache directory, replacing any existing one. "
+                + "If filters are specified, only matching books will be indexed. Books that are not "
+                + "in the index are still matched by scanning their text.\n\n" + super.getHelpFooter();
+    }
+
+    @Override
+    public boolean rebuildsCachedData() {
+        return true;
+    }
+
+    @Override
+    protected boolean requiresOrderedProcessing() {
+        return false;
+    }
+
+    @Override
+    public void process(DVD dvd, Commandline cmd) {
+        final Optional<Path> cachePath = dvd.getCachePath();
+        Preconditions.checkState(cachePath.isPresent(), "Indexing requires a cache directory");
+        indexFile = cachePath.get().resolve(TextIndex.FILENAME);
+        writer = new TextIndex.Writer(indexFile);
+        super.process(dvd, cmd);
+        try {
+            writer.close();
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    @Override
+    public boolean test(final Book book) {
+        final Set<String> terms = Sets.newHashSet();
+        if (book.scanPlaintext(false, (lineNum, line) -> {
+            TextIndex.addTerms(line, terms);
+            return true;
+        })) {
+            textCount.incrementAndGet();
+        }
+        writer.add(book, terms);
+        return true;
+    }
+
+    @Override
+    public void end() {
+        if (writer != null) {
+            out.println("Indexed " + writer.getTermCount() + " terms from " + textCount.get()
+                    + " books with plaintext (" + writer.getBookCount() + " books total)");
+            out.println("Saved index to " + indexFile);
+        }
+    }
+}
@@ -56,24 +56,24 @@ public class ListProcessor extends BaseProcessor
     @Override
     public boolean test(final Book book) {
         if (abbreviated) {
-            System.out.println(
+            out.println(
                     book.getFirst(Field.ETEXT_NO).get() + ": "
                     + book.getFirst(Field.TITLE).get());
         } else {
-            System.out.println("Match #" + matchCount + " of " + scanCount + " scanned");
-            System.out.println(book.getPlaintextMetadata(showComputed));
+            out.println("Match #" + matchCount.get() + " of " + scanCount.get() + " scanned");
+            out.println(book.getPlaintextMetadata(showComputed));
             if (printMatches) {
-                String s = matchInfo.toString();
-                System.out.println(s.substring(0, s.length() - 1));
+                String s = getMatchInfo();
+                out.println(s.substring(0, s.length() - 1));
             }
-            System.out.println();
+            out.println();
         }
         return true;
     }
 
     @Override
     public void end() {
-        int percent = (matchCount * 100) / scanCount;
-        System.out.println("Matched " + matchCount + " of " + scanCount + " (" + percent + "%)");
+        int percent = scanCount.get() == 0 ? 0 : (matchCount.get() * 100) / scanCount.get();
+        out.println("Matched " + matchCount.get() + " of " + scanCount.get() + " (" + percent + "%)");
     }
 }
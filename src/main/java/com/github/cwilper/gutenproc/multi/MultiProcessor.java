@@ -0,0 +1,346 @@
+package com.github.cwilper.gutenproc.multi;
+
+import com.github.cwilper.gutenproc.BaseProcessor;
+import com.github.cwilper.gutenproc.Book;
+import com.github.cwilper.gutenproc.Commandline;
+import com.github.cwilper.gutenproc.DVD;
+import com.github.cwilper.gutenproc.Processor;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Lists;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Runs several processors, each with its own options, in a single pass over the DVD. Each book is
+ * offered to every job in turn, with its text pinned in memory so it's read at most once.
+ */
+@SuppressWarnings("unused")
+public class MultiProcessor extends BaseProcessor
+{
+    private final List<Job> jobs = Lists.newArrayList();
+
+    /**
+     * Books that matched at least one job, waiting to be processed, with what each job matched.
+     * Their text stays pinned until then.
+     */
+    private final Map<Book, MatchedBook[]> pending = new ConcurrentHashMap<>();
+
+    private File outputDir;
+
+    @Override
+    public String getSynopsis() {
+        return "Runs several processors in a single pass over the DVD";
+    }
+
+    @Override
+    public String getHelpFooter() {
+        return "Jobs:\nEach job is a processor name followed by its options, as they'd be given on the command "
+                + "line. For example, to list English books about war and count their authors:\n\n"
+                + "  gutenproc multi -ms war -j \"list -ml English\" -j \"unique -f Author -c\"\n\n"
+                + "Books are read from the DVD once for all jobs, and their text is loaded at most once, however "
+                + "many jobs need it. Filters given outside the jobs apply to all of them, and threads and "
+                + "progress are set for the whole run rather than per job. Processors that rebuild cached data, "
+                + "such as index and pack, can't be run as jobs.\n\n" + super.getHelpFooter();
+    }
+
+    @Override
+    public void addOptions(final Options options) {
+        super.addOptions(options);
+        options.addOption(Option.builder("j")
+                .longOpt("job")
+                .desc("A processor and its options, to run along with the other jobs (required, and may be"
+                        + " given more than once)")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("jo")
+                .longOpt("job-output-dir")
+                .desc("Write each job's output to its own file in the given directory as it's produced, rather"
+                        + " than printing all of it when done. Files are named job-N-processor.txt")
+                .hasArg()
+                .build());
+    }
+
+    @Override
+    public boolean writesFiles(final Commandline cmd) {
+        if (cmd.hasOption("jo")) {
+            return true;
+        }
+        for (String spec : cmd.getOptionValues("j")) {
+            try {
+                final List<String> args = split(spec);
+                final Optional<Processor> processor = args.isEmpty() ? Optional.empty()
+                        : Processor.forName(args.get(0));
+                if (processor.isPresent()) {
+                    final Options options = new Options();
+                    processor.get().addOptions(options);
+                    final String[] jobArgs = args.toArray(new String[args.size()]);
+                    if (processor.get().writesFiles(Commandline.parse(options, jobArgs))) {
+                        return true;
+                    }
+                }
+            } catch (IllegalArgumentException | ParseException e) {
+                // begin will reject the job
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void begin(final Commandline cmd) {
+        super.begin(cmd);
+        Preconditions.checkArgument(cmd.hasOption("j"), "Must specify at least one job");
+        if (cmd.hasOption("jo")) {
+            outputDir = new File(cmd.getOptionValue("jo").get());
+            outputDir.mkdirs();
+            Preconditions.checkArgument(outputDir.isDirectory(), "Unable to create job output directory: " + outputDir);
+        }
+        for (String spec : cmd.getOptionValues("j")) {
+            final int n = jobs.size() + 1;
+            final List<String> args = split(spec);
+            Preconditions.checkArgument(!args.isEmpty(), "Job " + n + " is empty");
+            final Optional<Processor> processor = Processor.forName(args.get(0));
+            Preconditions.checkArgument(processor.isPresent(), "No such processor: " + args.get(0));
+            Preconditions.checkArgument(processor.get() instanceof BaseProcessor
+                    && !(processor.get() instanceof MultiProcessor) && !processor.get().rebuildsCachedData(),
+                    args.get(0) + " can't be run as a job");
+            final Options options = new Options();
+            processor.get().addOptions(options);
+            final Job job;
+            try {
+                job = new Job(n, spec, (BaseProcessor) processor.get(),
+                        Commandline.parse(options, args.toArray(new String[args.size()])));
+            } catch (ParseException e) {
+                throw new IllegalArgumentException("Job " + n + ": " + e.getMessage(), e);
+            }
+            try {
+                job.processor.begin(job.cmd);
+            } catch (RuntimeException e) {
+                job.out.close();
+                throw new IllegalArgumentException("Job " + n + ": " + e.getMessage(), e);
+            }
+            jobs.add(job);
+        }
+    }
+
+    @Override
+    protected boolean requiresOrderedProcessing() {
+        for (Job job : jobs) {
+            if (job.scan.isOrdered()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds a filter that passes books matched by at least one job. Jobs are matched here, rather than
+     * when processing, so their filters run on all threads even if some job's books must be processed
+     * in order. The text is pinned before any filter runs, so text read by the filters that apply to
+     * all jobs is kept for the jobs too.
+     */
+    @Override
+    protected Predicate<Book> getFilter(final Commandline cmd) {
+        final Predicate<Book> filter = super.getFilter(cmd);
+        return book -> {
+            book.pinText();
+            boolean matched = false;
+            try {
+                matched = filter.test(book) && matchJobs(book);
+            } finally {
+                if (!matched) {
+                    book.unpinText();
+                }
+            }
+            return matched;
+        };
+    }
+
+    private boolean matchJobs(final Book book) {
+        MatchedBook[] matched = null;
+        for (int i = 0; i < jobs.size(); i++) {
+            final BaseProcessor.Scan scan = jobs.get(i).scan;
+            if (!scan.isDone()) {
+                final MatchedBook matchedBook = scan.filter(book);
+                if (matchedBook != null) {
+                    if (matched == null) {
+                        matched = new MatchedBook[jobs.size()];
+                    }
+                    matched[i] = matchedBook;
+                }
+            }
+        }
+        if (matched == null) {
+            return false;
+        }
+        pending.put(book, matched);
+        return true;
+    }
+
+    @Override
+    protected void beforeScan(final DVD dvd) {
+        for (Job job : jobs) {
+            try {
+                job.scan = job.processor.startScan(dvd, job.cmd);
+            } catch (RuntimeException e) {
+                afterScan(false);
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public boolean test(final Book book) {
+        final MatchedBook[] matched = pending.remove(book);
+        try {
+            for (int i = 0; i < matched.length; i++) {
+                if (matched[i] != null) {
+                    jobs.get(i).scan.process(matched[i]);
+                }
+            }
+        } finally {
+            book.unpinText();
+        }
+        return true;
+    }
+
+    @Override
+    protected void afterScan(final boolean completed) {
+        RuntimeException failure = null;
+        for (Job job : jobs) {
+            if (job.scan != null) {
+                try {
+                    job.scan.finish(completed);
+                } catch (RuntimeException e) {
+                    failure = failure == null ? e : failure;
+                }
+            }
+        }
+        // matched, but not processed because the limit was reached
+        pending.keySet().forEach(Book::unpinText);
+        pending.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public void end() {
+        for (Job job : jobs) {
+            try {
+                job.processor.end();
+            } finally {
+                job.out.close();
+            }
+        }
+        for (Job job : jobs) {
+            if (outputDir == null) {
+                out.println("Job " + job.n + ": " + job.spec);
+                try (Reader reader = Files.newBufferedReader(job.file.toPath(), UTF_8)) {
+                    final char[] buffer = new char[8192];
+                    int count;
+                    while ((count = reader.read(buffer)) != -1) {
+                        out.print(new String(buffer, 0, count));
+                    }
+                } catch (IOException e) {
+                    throw Throwables.propagate(e);
+                } finally {
+                    job.file.delete();
+                }
+                out.println();
+            } else {
+                out.println("Wrote output of job " + job.n + " (" + job.spec + ") to " + job.file);
+            }
+        }
+        out.println("Scanned " + scanCount.get() + " books once for " + jobs.size() + " jobs");
+    }
+
+    /**
+     * Splits a job into arguments at whitespace, except within single or double quotes.
+     */
+    static List<String> split(String spec) {
+        final List<String> args = Lists.newArrayList();
+        final StringBuilder arg = new StringBuilder();
+        boolean inArg = false;
+        char quote = 0;
+        for (int i = 0; i < spec.length(); i++) {
+            final char c = spec.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                } else {
+                    arg.append(c);
+                }
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+                inArg = true;
+            } else if (Character.isWhitespace(c)) {
+                if (inArg) {
+                    args.add(arg.toString());
+                    arg.setLength(0);
+                    inArg = false;
+                }
+            } else {
+                arg.append(c);
+                inArg = true;
+            }
+        }
+        Preconditions.checkArgument(quote == 0, "Unmatched quote in job: " + spec);
+        if (inArg) {
+            args.add(arg.toString());
+        }
+        return args;
+    }
+
+    private final class Job
+    {
+        private final int n;
+
+        private final String spec;
+
+        private final BaseProcessor processor;
+
+        private final Commandline cmd;
+
+        private final File file;
+
+        private final PrintStream out;
+
+        private BaseProcessor.Scan scan;
+
+        private Job(int n, String spec, BaseProcessor processor, Commandline cmd) {
+            this.n = n;
+            this.spec = spec;
+            this.processor = processor;
+            this.cmd = cmd;
+            try {
+                if (outputDir != null) {
+                    file = new File(outputDir, "job-" + n + "-" + processor.getName() + ".txt");
+                } else {
+                    file = File.createTempFile("gutenproc-job-" + n + "-", ".txt");
+                    file.deleteOnExit();
+                }
+                out = new PrintStream(new BufferedOutputStream(new FileOutputStream(file)), false, UTF_8.name());
+            } catch (IOException e) {
+                throw Throwables.propagate(e);
+            }
+            processor.setOut(out);
+        }
+    }
+}
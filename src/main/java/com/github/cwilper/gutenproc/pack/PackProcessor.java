@@ -0,0 +1,99 @@
+package com.github.cwilper.gutenproc.pack;
+
+import com.github.cwilper.gutenproc.BaseProcessor;
+import com.github.cwilper.gutenproc.Book;
+import com.github.cwilper.gutenproc.Commandline;
+import com.github.cwilper.gutenproc.Corpus;
+import com.github.cwilper.gutenproc.DVD;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+@SuppressWarnings("unused")
+public class PackProcessor extends BaseProcessor
+{
+    private final AtomicInteger textCount = new AtomicInteger();
+
+    private Corpus.Writer writer;
+
+    private Path cachePath;
+
+    @Override
+    public String getSynopsis() {
+        return "Packs all plaintext into a single corpus that is much faster to scan than the DVD";
+    }
+
+    @Override
+    public String getHelpFooter() {
+        return "Packing:\nThe corpus is saved in the cache directory, replacing any existing one. "
+                + "If filters are specified, only matching books will be packed. Books that are not "
+                + "in the corpus are still read from the DVD.\n\n" + super.getHelpFooter();
+    }
+
+    @Override
+    public boolean rebuildsCachedData() {
+        return true;
+    }
+
+    @Override
+    protected boolean requiresOrderedProcessing() {
+        return false;
+    }
+
+    @Override
+    public void process(DVD dvd, Commandline cmd) {
+        final Optional<Path> cachePath = dvd.getCachePath();
+        Preconditions.checkState(cachePath.isPresent(), "Packing requires a cache directory");
+        this.cachePath = cachePath.get();
+        dvd.setCorpusEnabled(false);
+        writer = new Corpus.Writer(this.cachePath);
+        super.process(dvd, cmd);
+        try {
+            writer.close();
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+    }
+
+    @Override
+    public boolean test(final Book book) {
+        final byte[] raw = getText(book, false);
+        final byte[] normalized = raw == null ? null : getText(book, true);
+        if (raw != null) {
+            textCount.incrementAndGet();
+        }
+        try {
+            writer.add(book, raw, normalized);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        return true;
+    }
+
+    private static byte[] getText(Book book, boolean normalize) {
+        final ByteArrayOutputStream text = new ByteArrayOutputStream();
+        final boolean available = book.scanPlaintext(normalize, (lineNum, line) -> {
+            final byte[] bytes = line.getBytes(UTF_8);
+            text.write(bytes, 0, bytes.length);
+            text.write('\n');
+            return true;
+        });
+        return available ? text.toByteArray() : null;
+    }
+
+    @Override
+    public void end() {
+        if (writer != null) {
+            out.println("Packed " + (writer.getBytesWritten() >> 20) + "MB of text from " + textCount.get()
+                    + " books with plaintext (" + writer.getBookCount() + " books total)");
+            out.println("Saved corpus to " + cachePath);
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package com.github.cwilper.gutenproc.serve;
+
+import com.github.cwilper.gutenproc.Book;
+import com.github.cwilper.gutenproc.Commandline;
+import com.github.cwilper.gutenproc.DVD;
+import com.github.cwilper.gutenproc.GutenProc;
+import com.github.cwilper.gutenproc.Processor;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Maps;
+import com.google.common.io.CharStreams;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Keeps the DVD's books, text index and corpus in memory and runs other processors on them as
+ * requests arrive over HTTP, so each one only pays for the work that's specific to it.
+ */
+@SuppressWarnings("unused")
+public class ServeProcessor implements Processor
+{
+    private static final int DEFAULT_PORT = 8042;
+
+    private static final int HELP_WIDTH = 80;
+
+    private final Map<String, Class<? extends Processor>> processors = Maps.newTreeMap();
+
+    private PrintStream out = System.out;
+
+    private InetSocketAddress address;
+
+    private DVD dvd;
+
+    @Override
+    public String getSynopsis() {
+        return "Runs the other processors on request over HTTP, keeping the DVD's book catalog in memory";
+    }
+
+    @Override
+    public String getHelpFooter() {
+        return "Requests:\nPOST a processor name and its options to /run, one argument per line, with an "
+                + GutenProc.SERVER_REQUEST_HEADER + " header, and its output will be streamed back as it's printed, "
+                + "followed by a line giving its exit status. For example:\n\n"
+                + "  printf 'list\\n-a\\n-mt\\nwar' | curl -H '" + GutenProc.SERVER_REQUEST_HEADER + ": 1' "
+                + "--data-binary @- http://localhost:" + DEFAULT_PORT + "/run\n\n"
+                + "Or set " + GutenProc.SERVER_ENV + "=http://localhost:" + DEFAULT_PORT + " and run gutenproc as usual, "
+                + "and it will forward commands to the server. The DVD and cache options are set when the server "
+                + "starts, so they can't be given with requests. Processors that rebuild cached data, such as index "
+                + "and pack, must be run directly, and the server restarted to pick up the new data. Requests that "
+                + "would write files, such as dspace exports, are refused, as are requests from web pages. "
+                + "--progress can't be used with requests.";
+    }
+
+    @Override
+    public void setOut(PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void addOptions(Options options) {
+        options.addOption(Option.builder("p")
+                .longOpt("port")
+                .desc("Port to listen on. Default is " + DEFAULT_PORT)
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("b")
+                .longOpt("bind")
+                .desc("Address to listen on. Default is 127.0.0.1, which only accepts requests from the same machine")
+                .hasArg()
+                .build());
+    }
+
+    @Override
+    public void begin(Commandline cmd) {
+        final int port = cmd.getOptionIntValue("p", DEFAULT_PORT);
+        Preconditions.checkArgument(port >= 0 && port <= 0xFFFF, "Port must be between 0 and 65535");
+        address = new InetSocketAddress(cmd.getOptionValue("b", "127.0.0.1"), port);
+        Preconditions.checkArgument(!address.isUnresolved(), "Unknown bind address: " + address.getHostString());
+    }
+
+    @Override
+    public void process(DVD dvd, Commandline cmd) {
+        this.dvd = dvd;
+        for (Processor processor : Processor.list()) {
+            if (!(processor instanceof ServeProcessor)) {
+                processors.put(processor.getName(), processor.getClass());
+            }
+        }
+        final long start = System.nanoTime();
+        dvd.setBooksRetained(true);
+        final long bookCount;
+        try (Stream<Book> books = dvd.books()) {
+            bookCount = books.count();
+        }
+        dvd.getTextIndex();
+        dvd.getCorpus();
+        out.println("Loaded " + bookCount + " books in " + elapsedMillis(start) + "ms");
+
+        final HttpServer server;
+        try {
+            server = HttpServer.create(address, 0);
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+        server.createContext("/run", this::handle);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        out.println("Listening on http://" + address.getHostString() + ":" + server.getAddress().getPort() + "/run");
+        try {
+            new CountDownLatch(1).await(); // until the process is stopped
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Override
+    public void end() {
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                respond(exchange, 405, "Requests must be POSTed");
+                return;
+            }
+            // a web page can only send the header after a CORS preflight, which is never answered,
+            // and browsers send an Origin header with cross-origin POSTs
+            if (!exchange.getRequestHeaders().containsKey(GutenProc.SERVER_REQUEST_HEADER)
+                    || exchange.getRequestHeaders().containsKey("Origin")) {
+                respond(exchange, 403, "Requests must have an " + GutenProc.SERVER_REQUEST_HEADER
+                        + " header, and can't come from web pages");
+                return;
+            }
+            String body = CharStreams.toString(new InputStreamReader(exchange.getRequestBody(), UTF_8));
+            if (body.endsWith("\n")) {
+                body = body.substring(0, body.length() - 1);
+            }
+            if (body.isEmpty()) {
+                respond(exchange, 400, "Must specify a processor name");
+                return;
+            }
+            run(exchange, Splitter.on('\n').splitToList(body));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void run(HttpExchange exchange, List<String> args) throws IOException {
+        final String name = args.get(0).toLowerCase();
+        final Class<? extends Processor> type = processors.get(name);
+        if (type == null) {
+            respond(exchange, 404, "No such processor: " + args.get(0));
+            return;
+        }
+        final Processor processor;
+        try {
+            processor = type.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw Throwables.propagate(e);
+        }
+        if (processor.rebuildsCachedData()) {
+            respond(exchange, 400, name + " rebuilds cached data, so it must be run directly while the server is stopped");
+            return;
+        }
+        final Options options = new Options();
+        options.addOption("h", "help", false, "Shows help");
+        processor.addOptions(options);
+        final Commandline cmd;
+        try {
+            cmd = Commandline.parse(options, args.toArray(new String[args.size()]));
+        } catch (ParseException e) {
+            respond(exchange, 400, e.getMessage());
+            return;
+        }
+        if (cmd.hasOption("h")) {
+            final StringWriter help = new StringWriter();
+            GutenProc.printHelp(new PrintWriter(help), HELP_WIDTH, "gutenproc " + name + " -h | [processor-options..]",
+                    processor.getSynopsis(), options, processor.getHelpFooter());
+            sendHeaders(exchange, 200);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write((help + GutenProc.SERVER_STATUS_PREFIX + "0\n").getBytes(UTF_8));
+            }
+            return;
+        }
+        if (processor.writesFiles(cmd)) {
+            respond(exchange, 400, name + " would write files on the server, so it must be run directly");
+            return;
+        }
+        // progress goes to the server's stderr, and counts books scanned by all requests at once
+        if (cmd.hasOption("progress")) {
+            respond(exchange, 400, "--progress can't be used with the server");
+            return;
+        }
+        try {
+            processor.begin(cmd);
+        } catch (Exception e) {
+            respond(exchange, 400, e.getMessage() != null ? e.getMessage() : e.toString());
+            return;
+        }
+
+        final long start = System.nanoTime();
+        sendHeaders(exchange, 200);
+        String result = "OK";
+        try (PrintStream body = new PrintStream(new BufferedOutputStream(exchange.getResponseBody(), 1 << 16),
+                false, UTF_8.name())) {
+            processor.setOut(body);
+            int exitStatus = 0;
+            try {
+                try {
+                    processor.process(dvd, cmd);
+                } finally {
+                    processor.end();
+                }
+            } catch (RuntimeException e) {
+                body.println("Error: " + (e.getMessage() != null ? e.getMessage() : e.toString()));
+                result = "FAILED; " + e;
+                exitStatus = 1;
+            }
+            // the response has already started with a 200, so this is how the client learns of failures
+            body.println(GutenProc.SERVER_STATUS_PREFIX + exitStatus);
+        }
+        out.println("Ran " + String.join(" ", args) + " in " + elapsedMillis(start) + "ms: " + result);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String error) throws IOException {
+        sendHeaders(exchange, status);
+        try (OutputStream body = exchange.getResponseBody()) {
+            body.write(("Error: " + error + " (-h for help)\n" + GutenProc.SERVER_STATUS_PREFIX + "1\n")
+                    .getBytes(UTF_8));
+        }
+    }
+
+    private static void sendHeaders(HttpExchange exchange, int status) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, 0);
+    }
+
+    private static long elapsedMillis(long start) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+}
@@ -0,0 +1,144 @@
+package com.github.cwilper.gutenproc.unique;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Estimates the counts of a field's values in a fixed amount of memory, however many distinct
+ * values there are. The number of distinct values is estimated with a HyperLogLog. If heavy
+ * hitters are wanted, each value's count is also estimated with a Count-Min sketch, and only the
+ * k values with the highest estimates so far are kept.
+ */
+final class ApproximateCounts implements FieldCounts
+{
+    /**
+     * Orders candidates from worst to best: by ascending estimate, then by descending value.
+     */
+    private static final Comparator<Candidate> WORST_FIRST = Comparator.<Candidate>comparingInt(c -> c.estimate)
+            .thenComparing(Comparator.<Candidate, String>comparing(c -> c.value).reversed());
+
+    private final HyperLogLog distinct;
+
+    private final CountMinSketch sketch;
+
+    private final int k;
+
+    private final Map<String, Candidate> candidates = Maps.newHashMap();
+
+    private final TreeSet<Candidate> ranked = new TreeSet<>(WORST_FIRST);
+
+    /**
+     * Creates an instance that only estimates the number of distinct values.
+     */
+    ApproximateCounts(int precision) {
+        this(precision, null, 0);
+    }
+
+    /**
+     * Creates an instance that also keeps the k values with the highest estimated counts.
+     */
+    ApproximateCounts(int precision, CountMinSketch sketch, int k) {
+        this.distinct = new HyperLogLog(precision);
+        this.sketch = sketch;
+        this.k = k;
+    }
+
+    @Override
+    public void add(String value) {
+        final ByteBuffer hash = ByteBuffer.wrap(Hashing.murmur3_128().hashString(value, UTF_8).asBytes())
+                .order(ByteOrder.LITTLE_ENDIAN);
+        final long hash1 = hash.getLong(0);
+        final long hash2 = hash.getLong(8);
+        distinct.add(hash1);
+        if (sketch != null) {
+            offer(value, hash1, hash2, sketch.add(hash1, hash2));
+        }
+    }
+
+    /**
+     * Makes the value a candidate if its estimate is among the k highest.
+     */
+    private void offer(String value, long hash1, long hash2, int estimate) {
+        Candidate candidate = candidates.get(value);
+        if (candidate != null) {
+            ranked.remove(candidate);
+            candidate.estimate = estimate;
+            ranked.add(candidate);
+            return;
+        }
+        candidate = new Candidate(value, hash1, hash2, estimate);
+        if (candidates.size() == k) {
+            final Candidate worst = ranked.first();
+            if (WORST_FIRST.compare(candidate, worst) <= 0) {
+                return;
+            }
+            ranked.remove(worst);
+            candidates.remove(worst.value);
+        }
+        ranked.add(candidate);
+        candidates.put(value, candidate);
+    }
+
+    @Override
+    public void addAll(FieldCounts other) {
+        final ApproximateCounts counts = (ApproximateCounts) other;
+        distinct.addAll(counts.distinct);
+        if (sketch != null) {
+            sketch.addAll(counts.sketch);
+            // re-estimate every candidate from either side against the merged sketch
+            final List<Candidate> pool = Lists.newArrayList(candidates.values());
+            for (Candidate candidate : counts.candidates.values()) {
+                if (!candidates.containsKey(candidate.value)) {
+                    pool.add(candidate);
+                }
+            }
+            candidates.clear();
+            ranked.clear();
+            for (Candidate candidate : pool) {
+                offer(candidate.value, candidate.hash1, candidate.hash2,
+                        sketch.estimate(candidate.hash1, candidate.hash2));
+            }
+        }
+    }
+
+    @Override
+    public long distinctCount() {
+        return distinct.estimate();
+    }
+
+    /**
+     * Gets the values with the highest estimated counts, best first, along with their estimates.
+     */
+    List<Map.Entry<String, Integer>> top() {
+        final List<Map.Entry<String, Integer>> top = Lists.newArrayList();
+        for (Candidate candidate : ranked.descendingSet()) {
+            top.add(Maps.immutableEntry(candidate.value, candidate.estimate));
+        }
+        return top;
+    }
+
+    private static final class Candidate
+    {
+        private final String value;
+        private final long hash1;
+        private final long hash2;
+        private int estimate;
+
+        private Candidate(String value, long hash1, long hash2, int estimate) {
+            this.value = value;
+            this.hash1 = hash1;
+            this.hash2 = hash2;
+            this.estimate = estimate;
+        }
+    }
+}
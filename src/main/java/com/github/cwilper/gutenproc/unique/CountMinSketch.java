@@ -0,0 +1,66 @@
+package com.github.cwilper.gutenproc.unique;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Estimates how many times each item has been added, in a fixed width * depth table of counters.
+ * Estimates are never too low. With a width of e / epsilon and a depth of ln(1 / (1 - confidence)),
+ * they are too high by at most epsilon times the total count, with the given confidence.
+ *
+ * Items are identified by a pair of 64-bit hashes, from which one hash per row is derived.
+ */
+final class CountMinSketch
+{
+    private final int width;
+
+    private final int depth;
+
+    private final int[] counters;
+
+    CountMinSketch(int width, int depth) {
+        Preconditions.checkArgument(width > 0 && depth > 0);
+        this.width = width;
+        this.depth = depth;
+        this.counters = new int[width * depth];
+    }
+
+    static CountMinSketch forError(double epsilon, double confidence) {
+        Preconditions.checkArgument(epsilon > 0 && epsilon < 1, "Error must be between 0 and 1");
+        Preconditions.checkArgument(confidence > 0 && confidence < 1, "Confidence must be between 0 and 1");
+        final int width = (int) Math.ceil(Math.E / epsilon);
+        final int depth = (int) Math.ceil(Math.log(1 / (1 - confidence)));
+        return new CountMinSketch(width, Math.max(depth, 1));
+    }
+
+    /**
+     * Adds one occurrence of the item, returning its new estimated count.
+     */
+    int add(long hash1, long hash2) {
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            final int i = row * width + column(hash1, hash2, row);
+            counters[i]++;
+            estimate = Math.min(estimate, counters[i]);
+        }
+        return estimate;
+    }
+
+    int estimate(long hash1, long hash2) {
+        int estimate = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counters[row * width + column(hash1, hash2, row)]);
+        }
+        return estimate;
+    }
+
+    void addAll(CountMinSketch other) {
+        Preconditions.checkArgument(other.width == width && other.depth == depth);
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] += other.counters[i];
+        }
+    }
+
+    private int column(long hash1, long hash2, int row) {
+        return (int) (((hash1 + row * hash2) >>> 1) % width);
+    }
+}
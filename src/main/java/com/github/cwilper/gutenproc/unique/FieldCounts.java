@@ -0,0 +1,20 @@
+package com.github.cwilper.gutenproc.unique;
+
+/**
+ * Counts the values of one field. Implementations are not thread-safe, so each thread counts on
+ * its own instance and the instances are merged afterward.
+ */
+interface FieldCounts
+{
+    void add(String value);
+
+    /**
+     * Adds everything counted by another instance of the same kind to this one.
+     */
+    void addAll(FieldCounts other);
+
+    /**
+     * Gets the number of distinct values.
+     */
+    long distinctCount();
+}
@@ -0,0 +1,80 @@
+package com.github.cwilper.gutenproc.unique;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Estimates the number of distinct 64-bit hashes added, in 2^precision bytes of memory.
+ * The standard error of the estimate is about 1.04 / sqrt(2^precision).
+ */
+final class HyperLogLog
+{
+    static final int MIN_PRECISION = 4;
+
+    static final int MAX_PRECISION = 18;
+
+    private final int precision;
+
+    private final byte[] registers;
+
+    HyperLogLog(int precision) {
+        Preconditions.checkArgument(precision >= MIN_PRECISION && precision <= MAX_PRECISION);
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /**
+     * Gets the lowest precision whose standard error is within the given relative error.
+     */
+    static int precisionFor(double relativeError) {
+        final double registers = Math.pow(1.04 / relativeError, 2);
+        final int precision = (int) Math.ceil(Math.log(registers) / Math.log(2));
+        return Math.max(MIN_PRECISION, Math.min(MAX_PRECISION, precision));
+    }
+
+    void add(long hash) {
+        final int register = (int) (hash >>> (64 - precision));
+        // the rank is the position of the first 1 bit after the register bits; the sentinel caps it
+        final long rest = (hash << precision) | (1L << (precision - 1));
+        final byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (rank > registers[register]) {
+            registers[register] = rank;
+        }
+    }
+
+    void addAll(HyperLogLog other) {
+        Preconditions.checkArgument(other.precision == precision);
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    long estimate() {
+        final int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        final double alpha;
+        if (m == 16) {
+            alpha = 0.673;
+        } else if (m == 32) {
+            alpha = 0.697;
+        } else if (m == 64) {
+            alpha = 0.709;
+        } else {
+            alpha = 0.7213 / (1 + 1.079 / m);
+        }
+        final double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            // linear counting is more accurate for small cardinalities
+            return Math.round(m * Math.log((double) m / zeros));
+        }
+        return Math.round(estimate);
+    }
+}
@@ -3,20 +3,27 @@ package com.github.cwilper.gutenproc.unique;
 import com.github.cwilper.gutenproc.BaseProcessor;
 import com.github.cwilper.gutenproc.Book;
 import com.github.cwilper.gutenproc.Commandline;
+import com.github.cwilper.gutenproc.DVD;
 import com.github.cwilper.gutenproc.Field;
+import com.github.cwilper.gutenproc.MetadataIndex;
+import com.github.cwilper.gutenproc.Metrics;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 @SuppressWarnings("unused")
 public class UniqueProcessor extends BaseProcessor
 {
-    private final Map<Field, Map<String, Integer>> fieldMap = Maps.newHashMap();
+    private final ThreadCounts threadCounts = new ThreadCounts();
 
     private final List<Field> fields = Lists.newArrayList();
 
@@ -24,6 +31,14 @@ public class UniqueProcessor extends BaseProcessor
 
     private int showTop = Integer.MAX_VALUE;
 
+    private boolean approximate;
+
+    private int precision;
+
+    private double error;
+
+    private double confidence;
+
     @Override
     public String getSynopsis() {
         return "Prints unique metadata values";
@@ -46,6 +61,24 @@ public class UniqueProcessor extends BaseProcessor
                 .desc("Limit the number of unique values shown")
                 .hasArg()
                 .build());
+        options.addOption(Option.builder("ap")
+                .longOpt("approximate")
+                .desc("Estimate counts in a fixed amount of memory instead of keeping every unique value."
+                        + " Only applicable without -f, or with -c and -t")
+                .build());
+        options.addOption(Option.builder("er")
+                .longOpt("error")
+                .desc("Relative error of approximate counts. For the number of unique values this is the"
+                        + " standard error, and for counts of individual values it's the largest overcount,"
+                        + " as a fraction of all values counted. Default is 0.01")
+                .hasArg()
+                .build());
+        options.addOption(Option.builder("cf")
+                .longOpt("confidence")
+                .desc("Probability that approximate counts of individual values are within the error."
+                        + " Default is 0.99")
+                .hasArg()
+                .build());
     }
 
     @Override
@@ -62,22 +95,75 @@ public class UniqueProcessor extends BaseProcessor
         if (cmd.hasOption("t")) {
             showTop = cmd.getOptionIntValue("t").get();
         }
+        approximate = cmd.hasOption("ap");
+        if (approximate) {
+            Preconditions.checkArgument(fields.isEmpty() || (showCounts && cmd.hasOption("t")),
+                    "Approximate values for a field can only be shown with -c and -t");
+            error = Double.parseDouble(cmd.getOptionValue("er", "0.01"));
+            confidence = Double.parseDouble(cmd.getOptionValue("cf", "0.99"));
+            Preconditions.checkArgument(error > 0 && error < 1, "Error must be between 0 and 1");
+            Preconditions.checkArgument(confidence > 0 && confidence < 1, "Confidence must be between 0 and 1");
+            precision = HyperLogLog.precisionFor(error);
+        }
+    }
+
+    private FieldCounts newFieldCounts() {
+        if (!approximate) {
+            return new ValueCounts();
+        }
+        if (fields.isEmpty()) {
+            return new ApproximateCounts(precision);
+        }
+        return new ApproximateCounts(precision, CountMinSketch.forError(error, confidence), showTop);
+    }
+
+    /**
+     * Counts values straight from the metadata index when it can tell which books match, without
+     * looking at the books themselves.
+     */
+    @Override
+    public void process(final DVD dvd, final Commandline cmd) {
+        final Optional<BitSet> matches = approximate ? Optional.empty() : getIndexedMatches(dvd, cmd);
+        if (!matches.isPresent()) {
+            super.process(dvd, cmd);
+            return;
+        }
+        final MetadataIndex index = dvd.getMetadataIndex().get();
+        final FieldCounts[] counts = threadCounts.get();
+        for (Field field : fields.isEmpty() ? Arrays.asList(Field.values()) : fields) {
+            index.count(field, matches.get(), (value, count) -> {
+                if (counts[field.ordinal()] == null) {
+                    counts[field.ordinal()] = newFieldCounts();
+                }
+                ((ValueCounts) counts[field.ordinal()]).add(value, count);
+            });
+        }
+        scanCount.set(index.getBookCount());
+        matchCount.set(matches.get().cardinality());
+        processCount.set(matchCount.get());
+        Metrics.BOOKS_SCANNED.add(scanCount.get());
+        Metrics.BOOKS_MATCHED.add(matchCount.get());
+    }
+
+    @Override
+    protected boolean requiresOrderedProcessing() {
+        return false;
     }
 
     @Override
     public boolean test(final Book book) {
-        for (Field field : book.fields()) {
-            Map<String, Integer> valueMap = fieldMap.get(field);
-            if (valueMap == null) {
-                valueMap = Maps.newHashMap();
-                fieldMap.put(field, valueMap);
-            }
-            for (String value : book.get(field).get()) {
-                Integer count = valueMap.get(value);
-                if (count == null) {
-                    count = 0;
+        final FieldCounts[] counts = threadCounts.get();
+        for (Field field : fields.isEmpty() ? book.fields() : fields) {
+            final Optional<List<String>> values = book.get(field);
+            if (values.isPresent()) {
+                FieldCounts fieldCounts = counts[field.ordinal()];
+                if (fieldCounts == null) {
+                    fieldCounts = newFieldCounts();
+                    counts[field.ordinal()] = fieldCounts;
+                }
+                for (String value : values.get()) {
+                    fieldCounts.add(value);
                 }
-                valueMap.put(value, count + 1);
             }
         }
         return true;
@@ -85,45 +171,78 @@ public class UniqueProcessor extends BaseProcessor
 
     @Override
     public void end() {
+        final FieldCounts[] counts = mergeThreadCounts();
         if (fields.isEmpty()) {
-            for (Map.Entry<Field, Map<String, Integer>> entry : fieldMap.entrySet()) {
-                System.out.println(entry.getKey().label() + " values: " + entry.getValue().size());
+            for (Field field : Field.values()) {
+                if (counts[field.ordinal()] != null) {
+                    out.println(field.label() + " values: " + (approximate ? "~" : "")
+                            + counts[field.ordinal()].distinctCount());
+                }
             }
         } else if (fields.size() == 1) {
-            printValues(fieldMap.get(fields.get(0)));
+            printValues(counts[fields.get(0).ordinal()]);
         } else {
             for (Field field : fields) {
-                System.out.println(field.label() + " values:");
-                printValues(fieldMap.get(field));
-                System.out.println();
+                out.println(field.label() + " values:");
+                printValues(counts[field.ordinal()]);
+                out.println();
             }
         }
     }
 
-    private void printValues(final Map<String, Integer> valueMap) {
-        if (valueMap == null) return;
-        int i = 0;
-        for (Map.Entry<String, Integer> entry : sortedEntryList(valueMap)) {
-            if (showCounts) {
-                System.out.print(entry.getValue() + ": ");
-            }
-            System.out.println(entry.getKey());
-            i++;
-            if (i > showTop) {
-                break;
+    /**
+     * Merges the counts from each thread into the largest, field by field.
+     */
+    private FieldCounts[] mergeThreadCounts() {
+        final FieldCounts[] merged = new FieldCounts[Field.values().length];
+        for (int i = 0; i < merged.length; i++) {
+            for (FieldCounts[] counts : threadCounts.all) {
+                final FieldCounts fieldCounts = counts[i];
+                if (fieldCounts == null) {
+                    continue;
+                }
+                if (merged[i] == null) {
+                    merged[i] = fieldCounts;
+                } else if (fieldCounts.distinctCount() > merged[i].distinctCount()) {
+                    fieldCounts.addAll(merged[i]);
+                    merged[i] = fieldCounts;
+                } else {
+                    merged[i].addAll(fieldCounts);
+                }
             }
         }
+        return merged;
     }
 
-    private List<Map.Entry<String, Integer>> sortedEntryList(Map<String, Integer> map) {
-        List<Map.Entry<String, Integer>> list = Lists.newArrayList(map.entrySet());
-        Collections.sort(list, (o1, o2) -> {
+    private void printValues(final FieldCounts fieldCounts) {
+        if (fieldCounts == null) return;
+        if (approximate) {
+            for (Map.Entry<String, Integer> entry : ((ApproximateCounts) fieldCounts).top()) {
+                out.println("~" + entry.getValue() + ": " + entry.getKey());
+            }
+            return;
+        }
+        final ValueCounts counts = (ValueCounts) fieldCounts;
+        for (int id : counts.top(showTop, showCounts ? counts.byCount() : counts.byValue())) {
             if (showCounts) {
-                return o2.getValue().compareTo(o1.getValue());
-            } else {
-                return o1.getKey().compareTo(o2.getKey());
+                out.print(counts.count(id) + ": ");
             }
-        });
-        return list;
+            out.println(counts.value(id));
+        }
+    }
+
+    /**
+     * Gives each thread its own counts, one per field, keeping track of them all for merging.
+     */
+    private static final class ThreadCounts extends ThreadLocal<FieldCounts[]>
+    {
+        private final Queue<FieldCounts[]> all = new ConcurrentLinkedQueue<>();
+
+        @Override
+        protected FieldCounts[] initialValue() {
+            final FieldCounts[] counts = new FieldCounts[Field.values().length];
+            all.add(counts);
+            return counts;
+        }
     }
 }
@@ -0,0 +1,152 @@
+package com.github.cwilper.gutenproc.unique;
+
+import com.google.common.collect.Maps;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Counts occurrences of the distinct values of a field. Each distinct value is stored once and
+ * given an int id in order of first appearance, and counts are kept in a primitive array indexed
+ * by id, so counting a value that has been seen before allocates nothing.
+ */
+final class ValueCounts implements FieldCounts
+{
+    /**
+     * An ordering of value ids.
+     */
+    @FunctionalInterface
+    interface Order
+    {
+        int compare(int id1, int id2);
+    }
+
+    private final Map<String, Integer> ids = Maps.newHashMap();
+
+    private String[] values = new String[16];
+
+    private int[] counts = new int[16];
+
+    private int size;
+
+    @Override
+    public void add(String value) {
+        add(value, 1);
+    }
+
+    void add(String value, int count) {
+        Integer id = ids.get(value);
+        if (id == null) {
+            id = size++;
+            if (id == values.length) {
+                values = Arrays.copyOf(values, id * 2);
+                counts = Arrays.copyOf(counts, id * 2);
+            }
+            values[id] = value;
+            ids.put(value, id);
+        }
+        counts[id] += count;
+    }
+
+    @Override
+    public void addAll(FieldCounts other) {
+        final ValueCounts counts = (ValueCounts) other;
+        for (int id = 0; id < counts.size; id++) {
+            add(counts.values[id], counts.counts[id]);
+        }
+    }
+
+    @Override
+    public long distinctCount() {
+        return size;
+    }
+
+    String value(int id) {
+        return values[id];
+    }
+
+    int count(int id) {
+        return counts[id];
+    }
+
+    /**
+     * Orders ids by descending count, then by value.
+     */
+    Order byCount() {
+        return (id1, id2) -> {
+            final int c = Integer.compare(counts[id2], counts[id1]);
+            return c != 0 ? c : values[id1].compareTo(values[id2]);
+        };
+    }
+
+    /**
+     * Orders ids by value.
+     */
+    Order byValue() {
+        return (id1, id2) -> values[id1].compareTo(values[id2]);
+    }
+
+    /**
+     * Gets the ids of the first n values in the given order. Only a heap of n ids is kept while
+     * looking for them, so this takes O(size log n) time rather than sorting every value.
+     */
+    int[] top(int n, Order order) {
+        n = Math.min(n, size);
+        // a max-heap of the best n so far, with the worst of them at the root
+        final int[] heap = new int[n];
+        int heapSize = 0;
+        for (int id = 0; id < size; id++) {
+            if (heapSize < n) {
+                heap[heapSize] = id;
+                siftUp(heap, heapSize++, order);
+            } else if (n > 0 && order.compare(id, heap[0]) < 0) {
+                heap[0] = id;
+                siftDown(heap, heapSize, order);
+            }
+        }
+        // remove the worst each time, filling the result from the end
+        final int[] top = new int[n];
+        while (heapSize > 0) {
+            top[--heapSize] = heap[0];
+            heap[0] = heap[heapSize];
+            siftDown(heap, heapSize, order);
+        }
+        return top;
+    }
+
+    private static void siftUp(int[] heap, int i, Order order) {
+        final int id = heap[i];
+        while (i > 0) {
+            final int parent = (i - 1) / 2;
+            if (order.compare(heap[parent], id) >= 0) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = id;
+    }
+
+    private static void siftDown(int[] heap, int size, Order order) {
+        if (size == 0) {
+            return;
+        }
+        final int id = heap[0];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && order.compare(heap[child + 1], heap[child]) > 0) {
+                child++;
+            }
+            if (order.compare(heap[child], id) <= 0) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = id;
+    }
+}
@@ -0,0 +1,70 @@
+package com.github.cwilper.gutenproc;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class AhoCorasickTest
+{
+    private final Locale defaultLocale = Locale.getDefault();
+
+    @After
+    public void restoreLocale() {
+        Locale.setDefault(defaultLocale);
+    }
+
+    @Test
+    public void findsOverlappingPatternsIgnoringCase() {
+        final AhoCorasick automaton = automaton("he", "she", "his", "hers");
+        assertFound(automaton, "USHERS", true, true, false, true);
+        assertFound(automaton, "ahishers", true, true, true, true);
+        assertFound(automaton, "nothing here", true, false, false, false);
+        assertFound(automaton, "", false, false, false, false);
+    }
+
+    @Test
+    public void emptyPatternIsAlwaysFound() {
+        assertFound(automaton("", "x"), "abc", true, false);
+    }
+
+    @Test
+    public void countsOnlyNewlyFoundPatterns() {
+        final AhoCorasick automaton = automaton("a", "b");
+        final boolean[] found = new boolean[2];
+        assertEquals(1, automaton.find("a", found));
+        assertEquals(1, automaton.find("ab", found));
+        assertEquals(0, automaton.find("ab", found));
+    }
+
+    @Test
+    public void foldsNonAsciiTextAsStringToLowerCaseDoes() {
+        // a final sigma lowercases differently in context than on its own
+        final AhoCorasick automaton = automaton("ΟΔΟΣ".toLowerCase());
+        assertFound(automaton, "ΟΔΟΣ", true);
+        assertFound(automaton, "η οδος", true);
+        assertFound(automaton, "ascii prefix, then ΟΔΟΣ", true);
+    }
+
+    @Test
+    public void foldsAsStringToLowerCaseDoesInTurkish() {
+        Locale.setDefault(new Locale("tr", "TR"));
+        final AhoCorasick automaton = automaton("TITLE".toLowerCase());
+        assertFound(automaton, "THE TITLE PAGE", true);
+        assertFound(automaton, "the title page", false); // "title" doesn't contain "tıtle"
+    }
+
+    private static AhoCorasick automaton(String... lcPatterns) {
+        return new AhoCorasick(Arrays.asList(lcPatterns));
+    }
+
+    private static void assertFound(AhoCorasick automaton, String text, boolean... expected) {
+        final boolean[] found = new boolean[automaton.getPatternCount()];
+        automaton.find(text, found);
+        assertArrayEquals(text, expected, found);
+    }
+}
@@ -0,0 +1,67 @@
+package com.github.cwilper.gutenproc;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertEquals;
+
+public class BookTest
+{
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void pinnedTextIsReadOnceUntilTheLastUnpin() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("1.txt");
+        write(file, "first");
+        final Book book = new Book(null, ImmutableMap.of(
+                Field.FORMAT, Collections.singletonList("text/plain; charset=\"us-ascii\""),
+                Field.PATH, Collections.singletonList(file.toString())));
+
+        book.pinText();
+        assertEquals(Collections.singletonList("first"), raw(book));
+        write(file, "second");
+        assertEquals(Collections.singletonList("first"), raw(book));
+
+        book.pinText();
+        book.unpinText();
+        // still pinned by the outer call
+        assertEquals(Collections.singletonList("first"), raw(book));
+        book.unpinText();
+        assertEquals(Collections.singletonList("second"), raw(book));
+
+        // pinned again, it's read afresh
+        book.pinText();
+        write(file, "third");
+        assertEquals(Collections.singletonList("third"), raw(book));
+        book.unpinText();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void unpinningMoreThanPinningFails() {
+        final Book book = new Book(null, ImmutableMap.of());
+        book.pinText();
+        book.unpinText();
+        book.unpinText();
+    }
+
+    private static void write(Path file, String line) throws IOException {
+        Files.write(file, Collections.singletonList(line), US_ASCII);
+    }
+
+    private static List<String> raw(Book book) {
+        final List<String> lines = Lists.newArrayList();
+        book.scanPlaintext(false, (lineNum, line) -> lines.add(line));
+        return lines;
+    }
+}
@@ -0,0 +1,39 @@
+package com.github.cwilper.gutenproc;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+public class FieldTest
+{
+    private final Locale defaultLocale = Locale.getDefault();
+
+    @After
+    public void restoreLocale() {
+        Locale.setDefault(defaultLocale);
+    }
+
+    @Test
+    public void findsFieldsByLabelOrShortLabel() {
+        assertEquals(Field.ETEXT_NO, Field.forString("EText-No."));
+        assertEquals(Field.ETEXT_NO, Field.forString("etext-no"));
+        assertEquals(Field.LOC_CLASS, Field.forString("LOC CLASS"));
+        assertEquals(Field.LOC_CLASS, Field.forString("loc-class"));
+    }
+
+    @Test
+    public void lookupDoesNotDependOnLocale() {
+        Locale.setDefault(Locale.forLanguageTag("tr-TR"));
+        assertEquals(Field.TITLE, Field.forString("TITLE"));
+        assertEquals(Field.COPYRIGHT_STATUS, Field.forString("COPYRIGHT-STATUS"));
+        assertEquals("match-title", Field.TITLE.longOpt());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownFields() {
+        Field.forString("Illustrator");
+    }
+}
@@ -0,0 +1,181 @@
+package com.github.cwilper.gutenproc;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+public class IndexPageParserTest
+{
+    private static final List<String> PAGE = Arrays.asList(
+            "<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0 Strict//EN\">",
+            "<html><head><title>Moby Dick &amp; Other Tales by Herman Melville</title></head>",
+            "<body>",
+            "<h1>Moby Dick &amp; Other Tales</h1>",
+            "<table class=\"bibrec\">",
+            "<tr>",
+            "<th>Author</th>",
+            "<td><a href=\"../authors/m.html#a9\">Melville, Herman, 1819-1891</a></td>",
+            "</tr>",
+            "<tr>",
+            "<th>Contributor</th>",
+            "<td></td>",
+            "</tr>",
+            "<tr>",
+            "<th>Title</th>",
+            "<td>Moby Dick &amp; Other Tales &mdash; “Call me Ishmael”</td>",
+            "</tr>",
+            "<tr>",
+            "<th>Language</th>",
+            "<td>English</td>",
+            "</tr>",
+            "<tr>",
+            "<th>LoC Class</th>",
+            "<td><a href=\"../loccs/ps.html\">PS: Language and Literatures: American literature</a></td>",
+            "</tr>",
+            "<tr>",
+            "<th>LoC Class</th>",
+            "<td>PZ: Language and Literatures: Juvenile belles lettres</td>",
+            "</tr>",
+            "<tr>",
+            "<th>Subject</th>",
+            "<td>Whaling -- Fiction</td>",
+            "</tr>",
+            "<tr>",
+            "<th>Subject</th>",
+            "<td>Sea stories</td>",
+            "</tr>",
+            "<tr>",
+            "<th>Subject</th>",
+            "<td>Ahab, Captain (Fictitious character) -- Fiction</td>",
+            "</tr>",
+            "<tr>",
+            "<th>EText-No.</th>",
+            "<td>2701</td>",
+            "</tr>",
+            "<tr>",
+            "<th>Release Date</th>",
+            "<td>2001-07-01</td>",
+            "</tr>",
+            "<tr>",
+            "<th>Copyright Status</th>",
+            "<td>Not copyrighted in the United States. If you live elsewhere check the laws of your country.</td>",
+            "</tr>",
+            "<tr>",
+            "<th>Base Directory</th>",
+            "<td><a href=\"../2/7/0/2701/\">/2/7/0/2701/</a></td>",
+            "</tr>",
+            "</table>",
+            "<table><caption>Files</caption><tr><th>Format</th><th>File</th></tr>"
+                    + "<tr><td>text/plain; charset=\"us-ascii\"</td>"
+                    + "<td><a href=\"../2/7/0/2701/2701.zip\">../2/7/0/2701/2701.zip</a></td></tr></table>",
+            "<table><caption>Files</caption><tr><th>Format</th><th>File</th></tr>"
+                    + "<tr><td>text/plain; charset=\"utf-8\"</td>"
+                    + "<td><a href=\"../2/7/0/2701/2701-8.zip\">../2/7/0/2701/2701-8.zip</a></td></tr></table>",
+            "<table><caption>Files</caption><tr><th>Format</th><th>File</th></tr>"
+                    + "<tr><td>text/html</td>"
+                    + "<td><a href=\"../2/7/0/2701/2701-h.zip\">../2/7/0/2701/2701-h.zip</a></td></tr></table>",
+            "<p>Ebooks &copy; Project Gutenberg</p>",
+            "</body></html>");
+
+    private static final Map<Field, List<String>> EXPECTED = ImmutableMap.<Field, List<String>>builder()
+            .put(Field.AUTHOR, Arrays.asList("Melville, Herman, 1819-1891"))
+            .put(Field.TITLE, Arrays.asList("Moby Dick &amp; Other Tales &mdash; “Call me Ishmael”"))
+            .put(Field.LANGUAGE, Arrays.asList("English"))
+            .put(Field.LOC_CLASS, Arrays.asList(
+                    "PS: Language and Literatures: American literature",
+                    "PZ: Language and Literatures: Juvenile belles lettres"))
+            .put(Field.SUBJECT, Arrays.asList(
+                    "Whaling -- Fiction",
+                    "Sea stories",
+                    "Ahab, Captain (Fictitious character) -- Fiction"))
+            .put(Field.ETEXT_NO, Arrays.asList("2701"))
+            .put(Field.RELEASE_DATE, Arrays.asList("2001-07-01"))
+            .put(Field.COPYRIGHT_STATUS, Arrays.asList(
+                    "Not copyrighted in the United States. If you live elsewhere check the laws of your country."))
+            .put(Field.BASE_DIR, Arrays.asList("/2/7/0/2701/"))
+            .put(Field.FORMAT, Arrays.asList(
+                    "text/plain; charset=\"us-ascii\"",
+                    "text/plain; charset=\"utf-8\"",
+                    "text/html"))
+            .put(Field.PATH, Arrays.asList(
+                    "/dvd/./2/7/0/2701/2701.zip",
+                    "/dvd/./2/7/0/2701/2701-8.zip",
+                    "/dvd/./2/7/0/2701/2701-h.zip"))
+            .put(Field.URL, Arrays.asList("https://www.gutenberg.org/ebooks/2701"))
+            .build();
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final IndexPageParser parser = new IndexPageParser(null, Paths.get("/dvd"));
+
+    @Test
+    public void parsesFieldsAndFiles() throws IOException {
+        // entities are kept as they are on the page, and empty cells are dropped
+        assertEquals(EXPECTED, fields(parser.parse(write("2701.html", Joiner.on('\n').join(PAGE)))));
+    }
+
+    @Test
+    public void handlesAnyLineEnding() throws IOException {
+        assertEquals(EXPECTED, fields(parser.parse(write("crlf.html", Joiner.on("\r\n").join(PAGE) + "\r\n"))));
+        assertEquals(EXPECTED, fields(parser.parse(write("cr.html", Joiner.on('\r').join(PAGE)))));
+    }
+
+    @Test
+    public void handlesLinesLongerThanTheBuffers() throws IOException {
+        final List<String> page = Lists.newArrayList(PAGE);
+        final StringBuilder padding = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            padding.append("“&nbsp;”");
+        }
+        page.add(1, "<p>" + padding + "</p>");
+        page.add(page.indexOf("<td>English</td>"), "<td>" + padding + "</td>");
+        final Map<Field, List<String>> expected = Maps.newEnumMap(EXPECTED);
+        expected.put(Field.LANGUAGE, Arrays.asList(padding.toString(), "English"));
+        assertEquals(expected, fields(parser.parse(write("long.html", Joiner.on('\n').join(page)))));
+    }
+
+    @Test
+    public void reusesBuffersAcrossPages() throws IOException {
+        final Path first = write("2701.html", Joiner.on('\n').join(PAGE));
+        final Path second = write("1.html", Joiner.on('\n').join(Arrays.asList(
+                "<table>", "<th>EText-No.</th>", "<td>1</td>", "</table>")));
+        assertEquals(EXPECTED, fields(parser.parse(first)));
+        assertEquals(ImmutableMap.of(
+                Field.ETEXT_NO, Arrays.asList("1"),
+                Field.URL, Arrays.asList("https://www.gutenberg.org/ebooks/1")), fields(parser.parse(second)));
+        assertEquals(EXPECTED, fields(parser.parse(first)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownFields() throws IOException {
+        parser.parse(write("bad.html", "<th>Illustrator</th>\n<td>Someone</td>\n"));
+    }
+
+    private Path write(String name, String content) throws IOException {
+        return Files.write(folder.getRoot().toPath().resolve(name), content.getBytes(UTF_8));
+    }
+
+    private static Map<Field, List<String>> fields(Book book) {
+        final Map<Field, List<String>> fields = Maps.newEnumMap(Field.class);
+        for (Field field : book.fields()) {
+            fields.put(field, book.get(field).get());
+        }
+        return fields;
+    }
+}
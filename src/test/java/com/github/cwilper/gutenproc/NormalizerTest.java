@@ -0,0 +1,222 @@
+package com.github.cwilper.gutenproc;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks that normalizing plaintext as it streams gives exactly what the original normalizeText,
+ * which normalized all lines at once, gave.
+ */
+public class NormalizerTest
+{
+    private static final String HEADER = "The Project Gutenberg EBook of Some Book";
+
+    private static final String FOOTER = "End of the Project Gutenberg EBook of Some Book";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private int books;
+
+    @Test
+    public void stripsHeaderWithinFirst90Lines() throws IOException {
+        final List<String> text = Lists.newArrayList(HEADER, "", "Produced by someone", "");
+        text.addAll(body(50));
+        text.add("*** START OF THIS PROJECT GUTENBERG EBOOK ***");
+        text.addAll(body(120));
+        text.add(FOOTER);
+        text.addAll(body(5));
+        assertNormalizedAsBefore(text, 120);
+    }
+
+    @Test
+    public void stopsAtBoilerplateAfterStreamingStarts() throws IOException {
+        final List<String> text = body(150);
+        text.set(100, "This book is in the public domain.");
+        assertNormalizedAsBefore(text, 100);
+    }
+
+    @Test
+    public void boilerplateEndsTheTextOnlyAfter90Lines() throws IOException {
+        // after 90 lines, it's still taken to be the end of the header
+        final List<String> before = body(90);
+        before.add(FOOTER);
+        before.addAll(body(85));
+        assertNormalizedAsBefore(before, 85);
+        final List<String> after = body(91);
+        after.add(FOOTER);
+        after.addAll(body(100));
+        assertNormalizedAsBefore(after, 91);
+    }
+
+    @Test
+    public void collapsesRunsOfBlanksAndStripsTrailingWhitespace() throws IOException {
+        final List<String> text = Lists.newArrayList("", " ", "\t");
+        for (String line : body(100)) {
+            text.add(line + " \t");
+            text.add("");
+            text.add("   ");
+            text.add("\f\u000b");
+            text.add("\u001f");
+        }
+        text.add("trailing control\u001f");
+        assertNormalizedAsBefore(text, 101);
+    }
+
+    @Test
+    public void dropsTrailingBlankBeforeFooter() throws IOException {
+        final List<String> text = body(100);
+        text.add("");
+        text.add("   ");
+        text.add(FOOTER);
+        assertNormalizedAsBefore(text, 100);
+    }
+
+    @Test
+    public void keepsTrailingBlankWithoutFooter() throws IOException {
+        final List<String> longText = body(100);
+        longText.add("");
+        assertNormalizedAsBefore(longText, 100);
+        final List<String> shortText = body(85);
+        shortText.add("");
+        assertNormalizedAsBefore(shortText, 85);
+    }
+
+    @Test
+    public void treatsFewerThan80LinesAsUnavailable() throws IOException {
+        final List<String> text79 = Lists.newArrayList(HEADER);
+        text79.addAll(body(79));
+        assertNull(baseline(text79));
+        assertNormalizedAsBefore(text79, -1);
+
+        final List<String> text80 = Lists.newArrayList(HEADER);
+        text80.addAll(body(80));
+        assertNormalizedAsBefore(text80, 80);
+
+        // blank lines count toward the 80
+        final List<String> text40 = Lists.newArrayList(HEADER, "");
+        for (String line : body(40)) {
+            text40.add(line);
+            text40.add("");
+        }
+        assertNormalizedAsBefore(text40, 40);
+    }
+
+    @Test
+    public void matchesBaselineOnRandomTexts() throws IOException {
+        final Random random = new Random(42);
+        final String[] kinds = {"", " ", "\t\t", "Gutenberg at http://example.org", "an etext", HEADER};
+        for (int n = 0; n < 200; n++) {
+            final List<String> text = Lists.newArrayList();
+            final int length = random.nextInt(400);
+            for (int i = 0; i < length; i++) {
+                final int kind = random.nextInt(60);
+                if (kind < kinds.length && (kind < 3 || random.nextInt(4) == 0)) {
+                    text.add(kinds[kind]);
+                } else {
+                    text.add("Line " + i + (kind % 7 == 0 ? "  " : ""));
+                }
+            }
+            final List<String> expected = baseline(text);
+            assertNormalizedAsBefore(text, expected == null ? -1 : countNonBlank(expected));
+        }
+    }
+
+    /**
+     * Checks the normalized lines and line count of a book with the given text against the
+     * original algorithm, along with the expected number of non-blank lines, or -1 if unavailable.
+     */
+    private void assertNormalizedAsBefore(List<String> text, int nonBlankLines) throws IOException {
+        final List<String> expected = baseline(text);
+        assertEquals(nonBlankLines, expected == null ? -1 : countNonBlank(expected));
+
+        final List<String> actual = Lists.newArrayList();
+        final boolean available = book(text).scanPlaintext(true, (lineNum, line) -> {
+            assertEquals(actual.size() + 1, lineNum);
+            return actual.add(line);
+        });
+        if (expected == null) {
+            assertFalse(available);
+        } else {
+            assertEquals(expected, actual);
+        }
+        // counted in one pass over the raw text, which a new book has to do
+        assertEquals(nonBlankLines, book(text).lineCount());
+    }
+
+    private Book book(List<String> text) throws IOException {
+        final Path file = folder.getRoot().toPath().resolve(++books + ".txt");
+        Files.write(file, text, US_ASCII);
+        return new Book(null, ImmutableMap.of(
+                Field.FORMAT, Collections.singletonList("text/plain; charset=\"us-ascii\""),
+                Field.PATH, Collections.singletonList(file.toString())));
+    }
+
+    private static List<String> body(int count) {
+        final List<String> lines = Lists.newArrayList();
+        for (int i = 1; i <= count; i++) {
+            lines.add("Line " + i + " of the story.");
+        }
+        return lines;
+    }
+
+    private static int countNonBlank(List<String> lines) {
+        int count = 0;
+        for (String line : lines) {
+            if (!line.isEmpty()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The original normalizeText, which held all lines in memory.
+     */
+    private static List<String> baseline(List<String> input) {
+        List<String> lines = Lists.newArrayList();
+        boolean skipNextIfBlank = true;
+        for (String line : input) {
+            String lc = line.toLowerCase();
+            if (lc.contains("project gutenberg") || lc.contains("public domain") || lc.contains(" etext")
+                    || (lc.contains("gutenberg") && lc.contains("http"))) {
+                if (lines.size() > 90) {
+                    if (lines.get(lines.size() - 1).length() == 0) {
+                        lines.remove(lines.size() - 1);
+                    }
+                    break;
+                } else {
+                    lines.clear();
+                    skipNextIfBlank = true;
+                }
+            } else if (line.trim().length() == 0) {
+                if (!skipNextIfBlank) {
+                    lines.add("");
+                    skipNextIfBlank = true;
+                }
+            } else {
+                lines.add(line.replaceFirst("\\s+$", ""));
+                skipNextIfBlank = false;
+            }
+        }
+        if (lines.size() < 80) {
+            return null;
+        }
+        return lines;
+    }
+}
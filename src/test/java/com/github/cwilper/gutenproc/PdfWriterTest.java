@@ -0,0 +1,91 @@
+package com.github.cwilper.gutenproc;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PdfWriterTest
+{
+    private static final Pattern XREF_ENTRY = Pattern.compile("(\\d{10}) 00000 n \n");
+
+    private final Locale defaultLocale = Locale.getDefault();
+
+    @After
+    public void restoreLocale() {
+        Locale.setDefault(defaultLocale);
+    }
+
+    @Test
+    public void xrefLocatesEveryObject() throws IOException {
+        final String pdf = write(120);
+        final int xref = startxref(pdf);
+        assertTrue(pdf.startsWith("xref\n0 10\n0000000000 65535 f \n", xref));
+        final Matcher entry = XREF_ENTRY.matcher(pdf).region(xref, pdf.length());
+        int object = 0;
+        while (entry.find()) {
+            object++;
+            final int offset = Integer.parseInt(entry.group(1));
+            assertTrue("object " + object, pdf.startsWith(object + " 0 obj\n", offset));
+        }
+        assertEquals(9, object);
+        assertTrue(pdf.contains("/Kids [ 5 0 R 7 0 R 9 0 R ] /Count 3 "));
+        assertTrue(pdf.contains("trailer\n<< /Size 10 /Root 1 0 R >>"));
+    }
+
+    @Test
+    public void emptyDocumentHasNoPages() throws IOException {
+        final String pdf = write(0);
+        assertTrue(pdf.startsWith("xref\n0 4\n", startxref(pdf)));
+        assertTrue(pdf.contains("/Kids [ ] /Count 0 "));
+    }
+
+    @Test
+    public void xrefDigitsDoNotDependOnLocale() throws IOException {
+        Locale.setDefault(Locale.forLanguageTag("th-TH-u-nu-thai"));
+        final String pdf = write(1);
+        assertTrue(XREF_ENTRY.matcher(pdf).find(startxref(pdf)));
+    }
+
+    @Test
+    public void escapesAndEncodesText() throws IOException, DataFormatException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (PdfWriter writer = new PdfWriter(out)) {
+            writer.addLine("(a\\b) café → end");
+        }
+        final String pdf = new String(out.toByteArray(), ISO_8859_1);
+        final int start = pdf.indexOf("stream\n") + "stream\n".length();
+        final int end = pdf.indexOf("\nendstream");
+        final Inflater inflater = new Inflater();
+        inflater.setInput(out.toByteArray(), start, end - start);
+        final byte[] content = new byte[1024];
+        final String text = new String(content, 0, inflater.inflate(content), ISO_8859_1);
+        assertTrue(text, text.contains("(\\(a\\\\b\\) café ? end) Tj\n"));
+    }
+
+    private static String write(int lines) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (PdfWriter writer = new PdfWriter(out)) {
+            for (int i = 0; i < lines; i++) {
+                writer.addLine("Line " + i);
+            }
+        }
+        return new String(out.toByteArray(), ISO_8859_1);
+    }
+
+    private static int startxref(String pdf) {
+        final Matcher matcher = Pattern.compile("startxref\n(\\d+)\n%%EOF\n$").matcher(pdf);
+        assertTrue(matcher.find());
+        return Integer.parseInt(matcher.group(1));
+    }
+}
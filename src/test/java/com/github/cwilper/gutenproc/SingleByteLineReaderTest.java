@@ -0,0 +1,110 @@
+package com.github.cwilper.gutenproc;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.MalformedInputException;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_16;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SingleByteLineReaderTest
+{
+    private static final Charset WINDOWS_1252 = Charset.forName("windows-1252");
+
+    @Test
+    public void buildsTablesOnlyForSingleByteCharsets() {
+        assertTrue(SingleByteLineReader.table(US_ASCII).isPresent());
+        assertTrue(SingleByteLineReader.table(ISO_8859_1).isPresent());
+        assertTrue(SingleByteLineReader.table(WINDOWS_1252).isPresent());
+        assertFalse(SingleByteLineReader.table(UTF_8).isPresent());
+        assertFalse(SingleByteLineReader.table(UTF_16).isPresent());
+    }
+
+    @Test
+    public void splitsLinesAsBufferedReaderDoes() throws IOException {
+        final String[] texts = {"", "one", "one\n", "one\r\ntwo\rthree\n\nfour", "\r\n\r\n", "a\r\rb\n\r", "\n\n"};
+        for (String text : texts) {
+            final byte[] bytes = text.getBytes(ISO_8859_1);
+            assertEquals(text, readLines(bytes, ISO_8859_1), scan(new ByteArrayInputStream(bytes), ISO_8859_1, true));
+            assertEquals(text, readLines(bytes, ISO_8859_1), scan(new OneByteAtATime(bytes), ISO_8859_1, true));
+        }
+    }
+
+    @Test
+    public void decodesAsInputStreamReaderDoes() throws IOException {
+        final byte[] bytes = new byte[256];
+        for (int b = 0; b < 256; b++) {
+            bytes[b] = (byte) b;
+        }
+        for (Charset charset : new Charset[] {US_ASCII, ISO_8859_1, WINDOWS_1252}) {
+            assertEquals(charset.name(), readLines(bytes, charset),
+                    scan(new ByteArrayInputStream(bytes), charset, false));
+        }
+    }
+
+    @Test(expected = MalformedInputException.class)
+    public void rejectsInvalidBytesWhenStrict() throws IOException {
+        scan(new ByteArrayInputStream(new byte[] { 'a', (byte) 0x81 }), WINDOWS_1252, true);
+    }
+
+    @Test
+    public void stopsWhenVisitorReturnsFalse() throws IOException {
+        final List<String> lines = Lists.newArrayList();
+        SingleByteLineReader.scan(new ByteArrayInputStream("a\nb\nc\n".getBytes(US_ASCII)),
+                SingleByteLineReader.table(US_ASCII).get(), true, (lineNum, line) -> {
+                    lines.add(lineNum + ":" + line);
+                    return lineNum < 2;
+                });
+        assertEquals(Lists.newArrayList("1:a", "2:b"), lines);
+    }
+
+    private static List<String> scan(InputStream in, Charset charset, boolean strict) throws IOException {
+        final List<String> lines = Lists.newArrayList();
+        SingleByteLineReader.scan(in, SingleByteLineReader.table(charset).get(), strict, (lineNum, line) -> {
+            assertEquals(lines.size() + 1, lineNum);
+            return lines.add(line);
+        });
+        return lines;
+    }
+
+    private static List<String> readLines(byte[] bytes, Charset charset) throws IOException {
+        final List<String> lines = Lists.newArrayList();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(bytes), charset))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Returns one byte per read, so line terminators are split across reads.
+     */
+    private static final class OneByteAtATime extends FilterInputStream
+    {
+        private OneByteAtATime(byte[] bytes) {
+            super(new ByteArrayInputStream(bytes));
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(len, 1));
+        }
+    }
+}
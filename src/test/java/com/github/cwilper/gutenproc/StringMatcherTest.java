@@ -0,0 +1,93 @@
+package com.github.cwilper.gutenproc;
+
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class StringMatcherTest
+{
+    @Test
+    public void substringMatchesIgnoringCase() {
+        final StringMatcher matcher = StringMatcher.forString("Raven");
+        assertFalse(matcher.isRegex());
+        assertTrue(matcher.matches("THE RAVEN"));
+        assertTrue(matcher.matches("ravenous"));
+        assertFalse(matcher.matches("The Crow"));
+        assertEquals(Optional.of("raven"), matcher.getRequiredSubstring());
+    }
+
+    @Test
+    public void regexMustMatchInFull() {
+        final StringMatcher matcher = StringMatcher.forString("s/The .*/");
+        assertTrue(matcher.isRegex());
+        assertTrue(matcher.matches("The Raven"));
+        assertFalse(matcher.matches("the raven"));
+        assertFalse(matcher.matches("Raven, The "));
+    }
+
+    @Test
+    public void regexRequiredSubstringIsLowercased() {
+        assertEquals(Optional.of("the "), StringMatcher.forString("s/The .*/").getRequiredSubstring());
+        assertEquals(Optional.empty(), StringMatcher.forString("s/.*/").getRequiredSubstring());
+    }
+
+    @Test
+    public void requiredSubstringOfLiterals() {
+        assertEquals("abc", StringMatcher.requiredSubstring("abc"));
+        assertEquals("abc", StringMatcher.requiredSubstring("abc+"));
+        assertEquals("foo", StringMatcher.requiredSubstring("^foo.*bar$"));
+        assertEquals("foo.bar", StringMatcher.requiredSubstring("foo\\.bar"));
+        assertEquals("word", StringMatcher.requiredSubstring("\\bword\\b"));
+    }
+
+    @Test
+    public void requiredSubstringDropsOptionalCharacters() {
+        assertEquals("colo", StringMatcher.requiredSubstring("colou?r"));
+        assertEquals("ab", StringMatcher.requiredSubstring("abc*"));
+        assertEquals("ab", StringMatcher.requiredSubstring("abc{0,2}d"));
+    }
+
+    @Test
+    public void requiredSubstringSkipsGroupsAndClasses() {
+        assertEquals("def", StringMatcher.requiredSubstring("(abcd)def"));
+        assertEquals("def", StringMatcher.requiredSubstring("[]abcd]def"));
+        assertEquals("def", StringMatcher.requiredSubstring("[^]abcd]def"));
+        assertEquals("yz", StringMatcher.requiredSubstring("x[a-c(]+yz"));
+        assertEquals("end", StringMatcher.requiredSubstring("(a(b)[)]c)end"));
+    }
+
+    @Test
+    public void requiredSubstringIsNullWhenUnknown() {
+        assertNull(StringMatcher.requiredSubstring(""));
+        assertNull(StringMatcher.requiredSubstring(".*"));
+        assertNull(StringMatcher.requiredSubstring("\\d+"));
+        assertNull(StringMatcher.requiredSubstring("cat|dog"));
+        assertNull(StringMatcher.requiredSubstring("(?i)cat"));
+        assertNull(StringMatcher.requiredSubstring("\\Qcat\\E"));
+        assertNull(StringMatcher.requiredSubstring("(cat)\\1"));
+        assertNull(StringMatcher.requiredSubstring("cat\\"));
+    }
+
+    @Test
+    public void requiredSubstringIsInEveryMatch() {
+        final String[] regexes = {"colou?r", "abc{0,2}d", "x[a-c(]+yz", "a+bc", "\\bword\\b"};
+        final String[] values = {"color", "colour", "abd", "abccd", "xa(byz", "aaabc", "word"};
+        for (String regex : regexes) {
+            final StringMatcher matcher = StringMatcher.forString("s/" + regex + "/");
+            final String required = StringMatcher.requiredSubstring(regex);
+            for (String value : values) {
+                if (value.matches(regex)) {
+                    assertTrue(regex + " ~ " + value, matcher.matches(value));
+                    assertTrue(regex + " ~ " + value, value.contains(required));
+                } else {
+                    assertFalse(regex + " ~ " + value, matcher.matches(value));
+                }
+            }
+        }
+    }
+}
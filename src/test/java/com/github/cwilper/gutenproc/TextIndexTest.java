@@ -0,0 +1,125 @@
+package com.github.cwilper.gutenproc;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.Set;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TextIndexTest
+{
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private TextIndex index;
+
+    @Before
+    public void buildIndex() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve(TextIndex.FILENAME);
+        try (TextIndex.Writer writer = new TextIndex.Writer(file)) {
+            writer.add(book("1", "The Raven"), terms("The Raven"));
+            writer.add(book("2", "the crow"), terms("the crow"));
+            writer.add(book("3", "Rabbit hole"), terms("Rabbit hole"));
+            writer.add(book("4", ""), Collections.emptySet());
+            assertEquals(4, writer.getBookCount());
+        }
+        index = TextIndex.open(file).get();
+    }
+
+    @Test
+    public void addsDistinctLowercaseTerms() {
+        assertEquals(Sets.newHashSet("the", "raven", "s", "1845"), terms("THE Raven's raven, 1845!"));
+    }
+
+    @Test
+    public void findsBooksByWholeTerms() {
+        assertEquals(4, index.getBookCount());
+        assertEquals(bits(0, 1), candidates(" the "));
+        assertEquals(bits(1), candidates(" the crow "));
+        assertEquals(bits(), candidates(" ole "));
+    }
+
+    @Test
+    public void termsAtTheEndsMayBePartOfLongerTerms() {
+        assertEquals(bits(0), candidates("raven"));
+        assertEquals(bits(2), candidates("ole"));
+        assertEquals(bits(0), candidates("he ra"));
+        assertEquals(bits(0, 2), candidates(" ra"));
+        assertEquals(bits(0, 1), candidates("he "));
+    }
+
+    @Test
+    public void substringWithoutTermsRulesOutNothing() {
+        assertFalse(index.candidates(" , ").isPresent());
+    }
+
+    @Test
+    public void identifiesIndexedBooksByETextNumber() throws IOException {
+        assertEquals(0, index.bookId(book("1", null)));
+        assertEquals(3, index.bookId(book("4", null)));
+        assertEquals(-1, index.bookId(book("5", "A new book")));
+    }
+
+    @Test
+    public void doesNotIdentifyBooksChangedSinceIndexing() throws IOException {
+        final Path file = folder.getRoot().toPath().resolve("2.txt");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 2000));
+        assertEquals(-1, index.bookId(book("2", null)));
+        Files.write(folder.getRoot().toPath().resolve("3.txt"), "Rabbit hole, deeper".getBytes(UTF_8));
+        assertEquals(-1, index.bookId(book("3", null)));
+        assertEquals(0, index.bookId(book("1", null)));
+    }
+
+    @Test
+    public void ignoresMissingFile() {
+        assertFalse(TextIndex.open(folder.getRoot().toPath().resolve("missing.idx")).isPresent());
+    }
+
+    /**
+     * Gets a book whose file has the given text, or is left as it is if the text is null.
+     */
+    private Book book(String etextNo, String text) throws IOException {
+        final Path file = folder.getRoot().toPath().resolve(etextNo + ".txt");
+        if (text != null) {
+            Files.write(file, text.getBytes(UTF_8));
+        }
+        return new Book(null, ImmutableMap.of(
+                Field.ETEXT_NO, Collections.singletonList(etextNo),
+                Field.PATH, Collections.singletonList(file.toString())));
+    }
+
+    private static Set<String> terms(String line) {
+        final Set<String> terms = Sets.newHashSet();
+        TextIndex.addTerms(line, terms);
+        return terms;
+    }
+
+    private BitSet candidates(String lcSubstring) {
+        final Optional<BitSet> candidates = index.candidates(lcSubstring);
+        assertTrue(lcSubstring, candidates.isPresent());
+        return candidates.get();
+    }
+
+    private static BitSet bits(int... indexes) {
+        final BitSet bits = new BitSet();
+        for (int index : indexes) {
+            bits.set(index);
+        }
+        return bits;
+    }
+}
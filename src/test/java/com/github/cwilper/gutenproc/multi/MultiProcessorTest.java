@@ -0,0 +1,138 @@
+package com.github.cwilper.gutenproc.multi;
+
+import com.github.cwilper.gutenproc.BaseProcessor;
+import com.github.cwilper.gutenproc.Book;
+import com.github.cwilper.gutenproc.Commandline;
+import com.github.cwilper.gutenproc.DVD;
+import com.github.cwilper.gutenproc.Field;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.apache.commons.cli.Options;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MultiProcessorTest
+{
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void splitsAtWhitespaceOutsideQuotes() {
+        assertEquals(Arrays.asList("list", "-ml", "English"), MultiProcessor.split("list -ml English"));
+        assertEquals(Arrays.asList("list", "-ml", "English"), MultiProcessor.split("  list\t-ml \n English  "));
+        assertEquals(Arrays.asList("list", "-ms", "Sea stories"), MultiProcessor.split("list -ms \"Sea stories\""));
+        assertEquals(Arrays.asList("list", "-ms", "Sea stories"), MultiProcessor.split("list -ms 'Sea stories'"));
+        assertEquals(Collections.emptyList(), MultiProcessor.split("   "));
+    }
+
+    @Test
+    public void quotesMayAppearWithinArguments() {
+        assertEquals(Arrays.asList("list", "-mt", "s/The .*/"), MultiProcessor.split("list -mt s/'The .*'/"));
+        assertEquals(Arrays.asList("list", "-mt", "Moby's Dick"), MultiProcessor.split("list -mt \"Moby's Dick\""));
+        assertEquals(Arrays.asList("list", "-mt", "say \"hi\""), MultiProcessor.split("list -mt 'say \"hi\"'"));
+        assertEquals(Arrays.asList("list", "-mt", ""), MultiProcessor.split("list -mt \"\""));
+        assertEquals(Arrays.asList("ab", "c d"), MultiProcessor.split("a\"b\" 'c d'"));
+    }
+
+    @Test
+    public void rejectsUnmatchedQuotes() {
+        for (String spec : new String[] {"list -mt \"Moby", "list -mt 'Moby\"", "list -mt Moby's"}) {
+            try {
+                MultiProcessor.split(spec);
+                fail(spec);
+            } catch (IllegalArgumentException e) {
+                assertEquals("Unmatched quote in job: " + spec, e.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void releasesTextOfBooksLeftPendingByTheLimit() throws Exception {
+        final File dvdDir = folder.newFolder("dvd");
+        assertTrue(new File(dvdDir, "etext").mkdir());
+        final List<Book> books = Lists.newArrayList();
+        for (int i = 1; i <= 3; i++) {
+            books.add(book(i, "A whale of a tale, number " + i));
+        }
+        final MultiProcessor processor = new MultiProcessor();
+        final Options options = new Options();
+        processor.addOptions(options);
+        final Commandline cmd = Commandline.parse(options, "-l", "1", "-j", "list -mx whale");
+        processor.begin(cmd);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        processor.setOut(new PrintStream(bytes, true, UTF_8.name()));
+
+        // as when threads filter ahead of processing: all three match and wait, pinned
+        final BaseProcessor.Scan scan = processor.startScan(new DVD(dvdDir), cmd);
+        final List<BaseProcessor.MatchedBook> matched = Lists.newArrayList();
+        for (Book book : books) {
+            final BaseProcessor.MatchedBook matchedBook = scan.filter(book);
+            assertNotNull(matchedBook);
+            matched.add(matchedBook);
+        }
+        for (int i = 1; i <= 3; i++) {
+            Files.write(file(i), Collections.singletonList("Rewritten " + i), US_ASCII);
+        }
+        assertTrue(text(books.get(2)).startsWith("A whale"));
+        for (BaseProcessor.MatchedBook matchedBook : matched) {
+            scan.process(matchedBook);
+        }
+        assertTrue(scan.isDone());
+        scan.finish(true);
+        processor.end();
+
+        for (Book book : books) {
+            assertTrue(text(book).startsWith("Rewritten"));
+            try {
+                book.unpinText();
+                fail("Text left pinned");
+            } catch (IllegalStateException expected) {
+            }
+        }
+        final String output = new String(bytes.toByteArray(), UTF_8);
+        assertTrue(output, output.contains("Scanned 3 books once for 1 jobs"));
+        assertFalse(output, output.contains("Rewritten"));
+    }
+
+    private Book book(int n, String line) throws IOException {
+        final Path file = file(n);
+        Files.write(file, Collections.singletonList(line), US_ASCII);
+        return new Book(null, ImmutableMap.of(
+                Field.ETEXT_NO, Collections.singletonList(String.valueOf(n)),
+                Field.TITLE, Collections.singletonList("Book " + n),
+                Field.FORMAT, Collections.singletonList("text/plain; charset=\"us-ascii\""),
+                Field.PATH, Collections.singletonList(file.toString()))) {};
+    }
+
+    private Path file(int n) {
+        return folder.getRoot().toPath().resolve(n + ".txt");
+    }
+
+    private static String text(Book book) {
+        final StringBuilder text = new StringBuilder();
+        book.scanPlaintext(false, (lineNum, line) -> {
+            text.append(line);
+            return true;
+        });
+        return text.toString();
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.cwilper.gutenproc.unique;
+
+import com.google.common.hash.Hashing;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CountMinSketchTest
+{
+    private static final int ITEMS = 2000;
+
+    @Test
+    public void estimatesAreNeverTooLowAndWithinError() {
+        final CountMinSketch sketch = CountMinSketch.forError(0.001, 0.99);
+        final int total = addItems(sketch);
+        for (int i = 0; i < ITEMS; i++) {
+            final long[] hash = hash(i);
+            final int estimate = sketch.estimate(hash[0], hash[1]);
+            assertTrue("item " + i, estimate >= count(i));
+            assertTrue("item " + i, estimate <= count(i) + 0.001 * total);
+        }
+    }
+
+    @Test
+    public void addReturnsTheNewEstimate() {
+        final CountMinSketch sketch = new CountMinSketch(100, 3);
+        final long[] hash = hash(1);
+        assertEquals(0, sketch.estimate(hash[0], hash[1]));
+        assertEquals(1, sketch.add(hash[0], hash[1]));
+        assertEquals(2, sketch.add(hash[0], hash[1]));
+        assertEquals(2, sketch.estimate(hash[0], hash[1]));
+    }
+
+    @Test
+    public void mergesBySummingCounts() {
+        final CountMinSketch first = CountMinSketch.forError(0.01, 0.9);
+        final CountMinSketch second = CountMinSketch.forError(0.01, 0.9);
+        final long[] hash = hash(7);
+        first.add(hash[0], hash[1]);
+        second.add(hash[0], hash[1]);
+        second.add(hash[0], hash[1]);
+        first.addAll(second);
+        assertEquals(3, first.estimate(hash[0], hash[1]));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMergeOfDifferentSize() {
+        new CountMinSketch(100, 3).addAll(new CountMinSketch(100, 4));
+    }
+
+    /**
+     * Adds each item i (ITEMS / (i + 1)) times, returning the total count.
+     */
+    private static int addItems(CountMinSketch sketch) {
+        int total = 0;
+        for (int i = 0; i < ITEMS; i++) {
+            final long[] hash = hash(i);
+            for (int j = 0; j < count(i); j++) {
+                sketch.add(hash[0], hash[1]);
+                total++;
+            }
+        }
+        return total;
+    }
+
+    private static int count(int i) {
+        return ITEMS / (i + 1);
+    }
+
+    private static long[] hash(int i) {
+        final ByteBuffer hash = ByteBuffer.wrap(Hashing.murmur3_128().hashString("value " + i, UTF_8).asBytes())
+                .order(ByteOrder.LITTLE_ENDIAN);
+        return new long[] { hash.getLong(0), hash.getLong(8) };
+    }
+}
@@ -0,0 +1,73 @@
+package com.github.cwilper.gutenproc.unique;
+
+import com.google.common.hash.Hashing;
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+
+public class HyperLogLogTest
+{
+    @Test
+    public void estimatesNothingWhenEmpty() {
+        assertEquals(0, new HyperLogLog(14).estimate());
+    }
+
+    @Test
+    public void estimatesSmallCardinalitiesClosely() {
+        final HyperLogLog hll = new HyperLogLog(14);
+        addRange(hll, 0, 100);
+        assertEquals(100, hll.estimate(), 2);
+    }
+
+    @Test
+    public void estimatesWithinExpectedError() {
+        final HyperLogLog hll = new HyperLogLog(14); // standard error about 0.8%
+        addRange(hll, 0, 200000);
+        assertEquals(200000, hll.estimate(), 200000 * 0.03);
+    }
+
+    @Test
+    public void ignoresDuplicates() {
+        final HyperLogLog hll = new HyperLogLog(12);
+        addRange(hll, 0, 5000);
+        final long estimate = hll.estimate();
+        addRange(hll, 0, 5000);
+        assertEquals(estimate, hll.estimate());
+    }
+
+    @Test
+    public void mergesToTheSameEstimateAsOneSketch() {
+        final HyperLogLog all = new HyperLogLog(10);
+        addRange(all, 0, 30000);
+        final HyperLogLog first = new HyperLogLog(10);
+        addRange(first, 0, 20000);
+        final HyperLogLog second = new HyperLogLog(10);
+        addRange(second, 10000, 30000);
+        first.addAll(second);
+        assertEquals(all.estimate(), first.estimate());
+    }
+
+    @Test
+    public void choosesPrecisionForError() {
+        assertEquals(14, HyperLogLog.precisionFor(0.01));
+        assertEquals(HyperLogLog.MIN_PRECISION, HyperLogLog.precisionFor(0.5));
+        assertEquals(HyperLogLog.MAX_PRECISION, HyperLogLog.precisionFor(0.000001));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsPrecisionOutOfRange() {
+        new HyperLogLog(HyperLogLog.MAX_PRECISION + 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMergeOfDifferentPrecision() {
+        new HyperLogLog(10).addAll(new HyperLogLog(11));
+    }
+
+    private static void addRange(HyperLogLog hll, int from, int to) {
+        for (int i = from; i < to; i++) {
+            hll.add(Hashing.murmur3_128().hashString("value " + i, UTF_8).asLong());
+        }
+    }
+}
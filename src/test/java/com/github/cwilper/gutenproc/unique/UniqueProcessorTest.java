@@ -0,0 +1,192 @@
+package com.github.cwilper.gutenproc.unique;
+
+import com.github.cwilper.gutenproc.Book;
+import com.github.cwilper.gutenproc.Commandline;
+import com.github.cwilper.gutenproc.DVD;
+import com.github.cwilper.gutenproc.Field;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import org.apache.commons.cli.Options;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class UniqueProcessorTest
+{
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void showTopPrintsExactlyNWithTiesByValue() throws Exception {
+        final List<Book> books = Arrays.asList(
+                book("1", "Sea stories", "Whaling"),
+                book("2", "Whaling", "Sea stories"),
+                book("3", "Adventure", "Whaling"),
+                book("4", "Adventure", "Sea stories"),
+                book("5", "Poetry"));
+        assertEquals("3: Sea stories\n3: Whaling\n2: Adventure\n",
+                run(books, 1, "-f", "subject", "-c", "-t", "3"));
+        assertEquals("3: Sea stories\n3: Whaling\n2: Adventure\n1: Poetry\n",
+                run(books, 1, "-f", "subject", "-c", "-t", "10"));
+        assertEquals("Adventure\nPoetry\n", run(books, 1, "-f", "subject", "-t", "2"));
+    }
+
+    @Test
+    public void mergedThreadCountsEqualSingleThreadCounts() throws Exception {
+        final Random random = new Random(42);
+        final List<Book> books = Lists.newArrayList();
+        for (int i = 1; i <= 2000; i++) {
+            final int subjects = 1 + random.nextInt(3);
+            final String[] values = new String[subjects];
+            for (int j = 0; j < subjects; j++) {
+                values[j] = "Subject " + (int) Math.abs(random.nextGaussian() * 30);
+            }
+            books.add(book(String.valueOf(i), values));
+        }
+        final String[][] argSets = {
+                {"-f", "subject", "-c"},
+                {"-f", "subject", "-c", "-t", "15"},
+                {"-f", "subject", "-t", "15"},
+                {"-f", "subject", "-f", "etext-no", "-c", "-t", "5"},
+                {}};
+        for (String[] args : argSets) {
+            final String expected = run(books, 1, args);
+            assertTrue(expected.length() > 0);
+            assertEquals(Arrays.toString(args), expected, run(books, 4, args));
+        }
+    }
+
+    @Test
+    public void indexedCountsEqualPerBookCounts() throws Exception {
+        final File dvdDir = writeDVD(300);
+        final DVD indexed = new DVD(dvdDir);
+        indexed.setBooksRetained(true);
+        final String[][] argSets = {
+                {"-f", "subject", "-c"},
+                {"-f", "subject", "-f", "language", "-c", "-t", "8"},
+                {"-f", "subject", "-ml", "English"},
+                {"-f", "subject", "-c", "-ml", "English", "-ms", "Subject 1"},
+                {"-f", "subject", "-c", "-ms", "Subject 1", "-ms", "s/.*2.*/"},
+                {"-f", "author", "-c", "-ma", "Author 3", "-ml", "s/French|German/", "-ms", "Subject"},
+                {"-ml", "English", "-ms", "Subject 2"},
+                {"-f", "subject", "-c", "-ms", "No such subject"}};
+        for (String[] args : argSets) {
+            final AtomicInteger tested = new AtomicInteger();
+            final String expected = process(new DVD(dvdDir), tested, args);
+            assertTrue(Arrays.toString(args), tested.get() > 0 || expected.isEmpty());
+            tested.set(0);
+            assertEquals(Arrays.toString(args), expected, process(indexed, tested, args));
+            assertEquals("books tested despite the index", 0, tested.get());
+        }
+        final String[] threaded = {"-f", "subject", "-c", "-ms", "Subject 1", "-ms", "s/.*2.*/", "-th", "3"};
+        assertEquals(process(new DVD(dvdDir), new AtomicInteger(), threaded),
+                process(indexed, new AtomicInteger(), threaded));
+    }
+
+    /**
+     * Processes the DVD as the command line would, noting how many books were tested one by one
+     * rather than counted from the metadata index.
+     */
+    private static String process(DVD dvd, AtomicInteger tested, String... args) throws Exception {
+        final UniqueProcessor processor = new UniqueProcessor() {
+            @Override
+            public boolean test(Book book) {
+                tested.incrementAndGet();
+                return super.test(book);
+            }
+        };
+        final Options options = new Options();
+        processor.addOptions(options);
+        final Commandline cmd = Commandline.parse(options, args);
+        processor.begin(cmd);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        processor.setOut(new PrintStream(bytes, true, UTF_8.name()));
+        processor.process(dvd, cmd);
+        processor.end();
+        return new String(bytes.toByteArray(), UTF_8).replace(System.lineSeparator(), "\n");
+    }
+
+    /**
+     * Writes a DVD with index pages for the given number of books, some of which have the same
+     * subject more than once.
+     */
+    private File writeDVD(int bookCount) throws IOException {
+        final File dvdDir = folder.newFolder("dvd");
+        final Path etext = Files.createDirectory(dvdDir.toPath().resolve("etext"));
+        final Random random = new Random(42);
+        final String[] languages = {"English", "French", "German"};
+        for (int i = 1; i <= bookCount; i++) {
+            final StringBuilder page = new StringBuilder("<table>\n");
+            row(page, "EText-No.", String.valueOf(i));
+            row(page, "Title", "Book " + i);
+            row(page, "Author", "Author " + random.nextInt(40));
+            row(page, "Language", languages[random.nextInt(random.nextInt(3) + 1)]);
+            final String subject = "Subject " + random.nextInt(30);
+            row(page, "Subject", subject);
+            if (random.nextInt(4) == 0) {
+                row(page, "Subject", subject);
+            }
+            if (random.nextBoolean()) {
+                row(page, "Subject", "Subject " + random.nextInt(30));
+            }
+            page.append("</table>\n");
+            Files.write(etext.resolve(i + ".html"), page.toString().getBytes(UTF_8));
+        }
+        return dvdDir;
+    }
+
+    private static void row(StringBuilder page, String label, String value) {
+        page.append("<tr>\n<th>").append(label).append("</th>\n<td>").append(value).append("</td>\n</tr>\n");
+    }
+
+    /**
+     * Runs the processor over the books, testing them on the given number of threads, and gets
+     * what it printed at the end.
+     */
+    private static String run(List<Book> books, int threads, String... args) throws Exception {
+        final UniqueProcessor processor = new UniqueProcessor();
+        final Options options = new Options();
+        processor.addOptions(options);
+        processor.begin(Commandline.parse(options, args));
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        processor.setOut(new PrintStream(bytes, true, UTF_8.name()));
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<Boolean>> results = Lists.newArrayList();
+            for (Book book : books) {
+                results.add(executor.submit(() -> processor.test(book)));
+            }
+            for (Future<Boolean> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        processor.end();
+        return new String(bytes.toByteArray(), UTF_8).replace(System.lineSeparator(), "\n");
+    }
+
+    private static Book book(String etextNo, String... subjects) {
+        return new Book(null, ImmutableMap.of(
+                Field.ETEXT_NO, Arrays.asList(etextNo),
+                Field.SUBJECT, Arrays.asList(subjects))) {};
+    }
+}
@@ -0,0 +1,131 @@
+package com.github.cwilper.gutenproc.unique;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class ValueCountsTest
+{
+    @Test
+    public void givesIdsInOrderOfFirstAppearance() {
+        final ValueCounts counts = counts("b", "a", "b", "c", "b");
+        assertEquals(3, counts.distinctCount());
+        assertEquals("b", counts.value(0));
+        assertEquals(3, counts.count(0));
+        assertEquals("a", counts.value(1));
+        assertEquals(1, counts.count(1));
+        assertEquals("c", counts.value(2));
+    }
+
+    @Test
+    public void topByCountOrdersTiesByValue() {
+        final ValueCounts counts = counts("e", "b", "e", "c", "a", "c", "b", "d", "c", "a", "e", "b", "c", "c");
+        assertEquals(Arrays.asList("c", "b", "e", "a", "d"), values(counts, counts.top(5, counts.byCount())));
+        // the tie for second is broken by value, and exactly n are given
+        assertEquals(Arrays.asList("c", "b"), values(counts, counts.top(2, counts.byCount())));
+        assertEquals(Arrays.asList("c", "b", "e", "a"), values(counts, counts.top(4, counts.byCount())));
+    }
+
+    @Test
+    public void topByValue() {
+        final ValueCounts counts = counts("pear", "apple", "fig", "apple", "date");
+        assertEquals(Arrays.asList("apple", "date", "fig"), values(counts, counts.top(3, counts.byValue())));
+    }
+
+    @Test
+    public void topIsEverythingWhenNExceedsDistinctValues() {
+        final ValueCounts counts = counts("b", "a", "b");
+        assertEquals(Arrays.asList("b", "a"), values(counts, counts.top(10, counts.byCount())));
+        assertEquals(Arrays.asList("a", "b"), values(counts, counts.top(Integer.MAX_VALUE, counts.byValue())));
+        assertEquals(0, counts.top(0, counts.byCount()).length);
+        assertEquals(0, new ValueCounts().top(5, new ValueCounts().byCount()).length);
+    }
+
+    @Test
+    public void topMatchesFullSort() {
+        final Random random = new Random(42);
+        for (int n = 0; n < 50; n++) {
+            final ValueCounts counts = new ValueCounts();
+            final int size = random.nextInt(200);
+            for (int i = 0; i < size; i++) {
+                counts.add("v" + random.nextInt(60), 1 + random.nextInt(3));
+            }
+            final int limit = random.nextInt(70);
+            assertEquals(sortedByCount(counts, limit), values(counts, counts.top(limit, counts.byCount())));
+        }
+    }
+
+    @Test
+    public void mergesPartialsWithDifferentIdOrders() {
+        final ValueCounts first = counts("a", "b", "c", "a");
+        final ValueCounts second = counts("d", "c", "b", "c", "e");
+        first.addAll(second);
+        assertEquals(5, first.distinctCount());
+        assertEquals(countMap(counts("a", "b", "c", "a", "d", "c", "b", "c", "e")), countMap(first));
+        assertEquals(Arrays.asList("c", "a", "b"), values(first, first.top(3, first.byCount())));
+    }
+
+    @Test
+    public void mergedCountsEqualSingleCounts() {
+        final Random random = new Random(7);
+        final ValueCounts single = new ValueCounts();
+        final List<ValueCounts> partials = Lists.newArrayList();
+        for (int i = 0; i < 4; i++) {
+            partials.add(new ValueCounts());
+        }
+        for (int i = 0; i < 5000; i++) {
+            // skewed, so partials see values in different orders and in different proportions
+            final String value = "v" + (int) Math.abs(random.nextGaussian() * 40);
+            single.add(value);
+            partials.get(random.nextInt(partials.size())).add(value);
+        }
+        Collections.shuffle(partials, random);
+        final ValueCounts merged = partials.get(0);
+        for (ValueCounts partial : partials.subList(1, partials.size())) {
+            merged.addAll(partial);
+        }
+        assertEquals(countMap(single), countMap(merged));
+        assertEquals(values(single, single.top(25, single.byCount())), values(merged, merged.top(25, merged.byCount())));
+        assertEquals(values(single, single.top(25, single.byValue())), values(merged, merged.top(25, merged.byValue())));
+    }
+
+    private static ValueCounts counts(String... values) {
+        final ValueCounts counts = new ValueCounts();
+        for (String value : values) {
+            counts.add(value);
+        }
+        return counts;
+    }
+
+    private static List<String> values(ValueCounts counts, int[] ids) {
+        final List<String> values = Lists.newArrayList();
+        for (int id : ids) {
+            values.add(counts.value(id));
+        }
+        return values;
+    }
+
+    private static Map<String, Integer> countMap(ValueCounts counts) {
+        final Map<String, Integer> map = Maps.newHashMap();
+        for (int id = 0; id < counts.distinctCount(); id++) {
+            map.put(counts.value(id), counts.count(id));
+        }
+        return map;
+    }
+
+    private static List<String> sortedByCount(ValueCounts counts, int limit) {
+        final Map<String, Integer> map = countMap(counts);
+        final List<String> values = Lists.newArrayList(map.keySet());
+        values.sort(Comparator.<String>comparingInt(map::get).reversed().thenComparing(Comparator.naturalOrder()));
+        return values.subList(0, Math.min(limit, values.size()));
+    }
+}